@@ -13,7 +13,14 @@ public interface Connector {
     void start() throws Exception;
 
     /**
-     * Stops the connector.
+     * Stops accepting new connections, while the open ones are still served.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    void stopAccepting() throws Exception;
+
+    /**
+     * Stops the connector, closing all of its connections.
      *
      * @throws Exception any exception that might occur.
      */
@@ -11,7 +11,8 @@ public interface Handler {
      * Handles a task with a given {@link Socket}.
      *
      * @param socket the client {@link Socket}.
-     * @return true if the task was handled successfully, false otherwise.
+     * @return true if the task was handled successfully and the connection
+     *         can be kept open for further requests, false otherwise.
      * @throws Exception any exception that might occur.
      */
     boolean handle(Socket socket) throws Exception;
@@ -3,6 +3,7 @@ package com.akrivos.eos;
 import com.akrivos.eos.config.Settings;
 import com.akrivos.eos.http.FilesHandler;
 import com.akrivos.eos.http.HttpServer;
+import com.akrivos.eos.http.NioConnector;
 import com.akrivos.eos.http.SocketConnector;
 import org.apache.log4j.Logger;
 
@@ -28,9 +29,18 @@ public class Main {
         String address = Settings.INSTANCE.getValueFor(Settings.SERVER_ADDRESS);
         int port = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_PORT);
         String root = Settings.INSTANCE.getValueFor(Settings.SERVER_ROOT);
+        String connectorType = Settings.INSTANCE.getValueFor(Settings.SERVER_CONNECTOR);
+        String threadPoolType = Settings.INSTANCE.getValueFor(Settings.SERVER_THREADPOOL);
 
         // create the connector
-        Connector connector = new SocketConnector(10);
+        Connector connector;
+        if (connectorType.equals("nio")) {
+            connector = new NioConnector(
+                    Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_SELECTORS));
+        } else {
+            connector = new SocketConnector(
+                    Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_ACCEPTORS));
+        }
         connector.setAddress(address);
         connector.setPort(port);
 
@@ -39,8 +49,22 @@ public class Main {
         // create the handler
         Handler handler = new FilesHandler(root);
 
+        // create the thread pool
+        ThreadPool threadPool;
+        if (threadPoolType.equals("virtual")) {
+            if (!VirtualThreadPool.isSupported()) {
+                logger.error("Cannot start: the virtual thread pool requires Java 21 or later.");
+                System.exit(1);
+            }
+            threadPool = new VirtualThreadPool();
+        } else if (threadPoolType.equals("forkjoin")) {
+            threadPool = new WorkStealingThreadPool();
+        } else {
+            threadPool = new ServerThreadPool();
+        }
+
         // create the server
-        Server server = new HttpServer();
+        Server server = new HttpServer(threadPool);
         server.setConnectors(connectors);
         server.setHandler(handler);
 
@@ -56,5 +80,24 @@ public class Main {
                     + address + ":" + port);
             System.exit(1);
         }
+
+        // stop the server gracefully when the JVM shuts down (e.g. on SIGTERM)
+        final Server runningServer = server;
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (logger.isInfoEnabled()) {
+                    logger.info("Stopping the server...");
+                }
+                try {
+                    runningServer.stop();
+                } catch (Exception e) {
+                    logger.error("Error while stopping the server", e);
+                }
+                if (logger.isInfoEnabled()) {
+                    logger.info("Server stopped");
+                }
+            }
+        }, "eos-shutdown"));
     }
 }
\ No newline at end of file
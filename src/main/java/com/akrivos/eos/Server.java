@@ -23,6 +23,14 @@ public interface Server extends ThreadPool {
      */
     void stop() throws Exception;
 
+    /**
+     * Checks if the server is running, i.e. it has been
+     * started and has not started stopping yet.
+     *
+     * @return true if the server is running, false otherwise.
+     */
+    boolean isRunning();
+
     /**
      * Returns the array field of {@link Connector}.
      *
@@ -55,7 +63,9 @@ public interface Server extends ThreadPool {
      * Handles an accepted request from the {@link ThreadPool}.
      *
      * @param socket the client socket coming from the {@link java.net.ServerSocket#accept()}.
+     * @return true if the connection can be kept open for
+     *         further requests, false otherwise.
      * @throws Exception any exceptions the might occur.
      */
-    void handle(Socket socket) throws Exception;
+    boolean handle(Socket socket) throws Exception;
 }
\ No newline at end of file
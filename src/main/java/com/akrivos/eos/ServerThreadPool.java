@@ -1,26 +1,42 @@
 package com.akrivos.eos;
 
+import com.akrivos.eos.config.Settings;
 import org.apache.log4j.Logger;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The server's {@link ThreadPool}, pre-configured with some default constants.
+ * The server's {@link ThreadPool}, configured from the {@link Settings}.
+ * In adaptive mode, the core pool size is resized at runtime, within the
+ * configured core and maximum sizes, based on how long the tasks wait in
+ * the queue and on the observed throughput.
  */
 public class ServerThreadPool extends ThreadPoolExecutor implements ThreadPool {
     private static final Logger logger = Logger.getLogger(ServerThreadPool.class);
 
-    private static final int CORE_POOL_SIZE = 16;
-    private static final int MAX_POOL_SIZE = 64;
-    private static final int KEEP_ALIVE_TIME = 60;
-    private static final int QUEUE_SIZE = 10;
+    private static final int ADAPT_INTERVAL = 1000;
+
+    private final AtomicLong queueWaitTime;
+    private final AtomicLong queueWaitCount;
+    private ScheduledExecutorService sizer;
 
     /**
-     * Creates a {@link ThreadPool} with the default constant values of this class.
+     * Creates a {@link ThreadPool} with the values of the {@link Settings},
+     * which default to 16 core threads, 64 maximum threads, 60 seconds keep-alive
+     * time for the threads above the core and a queue of 128 tasks.
      */
     public ServerThreadPool() {
-        super(CORE_POOL_SIZE, MAX_POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE));
+        this(Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_CORE),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_MAX),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_KEEPALIVE),
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(
+                        Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_QUEUE)));
+        if (Settings.INSTANCE.getValueAsBooleanFor(Settings.SERVER_THREADS_ADAPTIVE)) {
+            startAdaptiveSizing(getCorePoolSize(), getMaximumPoolSize(),
+                    Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_ADAPTIVE_WAIT));
+        }
     }
 
     /**
@@ -41,6 +57,8 @@ public class ServerThreadPool extends ThreadPoolExecutor implements ThreadPool {
                             long keepAliveTime, TimeUnit unit,
                             BlockingQueue<Runnable> workQueue) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+        queueWaitTime = new AtomicLong();
+        queueWaitCount = new AtomicLong();
     }
 
     /**
@@ -49,11 +67,131 @@ public class ServerThreadPool extends ThreadPoolExecutor implements ThreadPool {
     @Override
     public boolean enqueueTask(Runnable task) {
         try {
-            super.execute(task);
+            super.execute(sizer != null ? new TimedTask(task) : task);
             return true;
         } catch (RejectedExecutionException e) {
             logger.warn("Cannot accept the task for execution", e);
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Starts resizing the core pool size every second, within the given bounds.
+     * While the tasks wait in the queue for longer than the target time on
+     * average, the core pool size grows by a quarter, unless the previous
+     * growth lowered the throughput, in which case it backs off. While the
+     * tasks do not wait and most of the core threads are idle, it shrinks
+     * by one thread at a time.
+     *
+     * @param minCoreSize the minimum core pool size.
+     * @param maxCoreSize the maximum core pool size.
+     * @param targetWait  the target average queue wait time in milliseconds.
+     */
+    public synchronized void startAdaptiveSizing(final int minCoreSize,
+                                                 final int maxCoreSize,
+                                                 final int targetWait) {
+        if (sizer != null) {
+            return;
+        }
+        sizer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "eos-pool-sizer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sizer.scheduleAtFixedRate(new Runnable() {
+            private long lastCompleted = getCompletedTaskCount();
+            private long lastThroughput;
+            private boolean grew;
+
+            @Override
+            public void run() {
+                long completed = getCompletedTaskCount();
+                long throughput = completed - lastCompleted;
+                long waits = queueWaitCount.getAndSet(0);
+                long averageWait = waits == 0 ? 0
+                        : TimeUnit.NANOSECONDS.toMillis(queueWaitTime.getAndSet(0)) / waits;
+                int core = getCorePoolSize();
+                int newCore = core;
+                if (averageWait > targetWait && core < maxCoreSize) {
+                    if (grew && throughput < lastThroughput * 95 / 100) {
+                        // the last growth did not pay off, step back
+                        newCore = Math.max(minCoreSize, core - Math.max(1, core / 4));
+                        grew = false;
+                    } else {
+                        newCore = Math.min(maxCoreSize, core + Math.max(1, core / 4));
+                        grew = true;
+                    }
+                } else if (averageWait <= targetWait / 4 && getQueue().isEmpty()
+                        && getActiveCount() < core / 2 && core > minCoreSize) {
+                    newCore = core - 1;
+                    grew = false;
+                } else {
+                    grew = false;
+                }
+                if (newCore != core) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Resizing core pool from " + core + " to " + newCore
+                                + " threads (queue wait " + averageWait + "ms, throughput "
+                                + throughput + " tasks/s)");
+                    }
+                    setCorePoolSize(newCore);
+                }
+                lastCompleted = completed;
+                lastThroughput = throughput;
+            }
+        }, ADAPT_INTERVAL, ADAPT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records how long a task waited in the queue.
+     *
+     * @see ThreadPoolExecutor#beforeExecute(Thread, Runnable)
+     */
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof TimedTask) {
+            queueWaitTime.addAndGet(System.nanoTime() - ((TimedTask) r).enqueued);
+            queueWaitCount.incrementAndGet();
+        }
+        super.beforeExecute(t, r);
+    }
+
+    /**
+     * Stops the adaptive sizing, once the pool has terminated.
+     *
+     * @see ThreadPoolExecutor#terminated()
+     */
+    @Override
+    protected synchronized void terminated() {
+        if (sizer != null) {
+            sizer.shutdownNow();
+        }
+        super.terminated();
+    }
+
+    /**
+     * A task which keeps the time it was enqueued at.
+     */
+    private static class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long enqueued;
+
+        /**
+         * Creates a new TimedTask.
+         *
+         * @param task the actual task.
+         */
+        public TimedTask(Runnable task) {
+            this.task = task;
+            enqueued = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
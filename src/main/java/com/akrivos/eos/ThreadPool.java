@@ -1,5 +1,8 @@
 package com.akrivos.eos;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A simple ThreadPool interface.
  */
@@ -13,4 +16,26 @@ public interface ThreadPool {
      * @throws Exception any exception that might occur.
      */
     boolean enqueueTask(Runnable task) throws Exception;
+
+    /**
+     * Stops accepting new tasks, while the enqueued ones still run.
+     */
+    void shutdown();
+
+    /**
+     * Stops accepting new tasks and interrupts the running ones.
+     *
+     * @return the tasks that were enqueued but never started.
+     */
+    List<Runnable> shutdownNow();
+
+    /**
+     * Waits until all tasks have finished after a shutdown, or the timeout expires.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the {@link TimeUnit} of the timeout.
+     * @return true if all tasks have finished, false if the timeout expired.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.akrivos.eos;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ThreadPool} which runs every task in its own virtual thread.
+ * Blocking socket and file I/O only parks the virtual thread, so the number
+ * of connections served concurrently is not limited by a number of threads.
+ * Virtual threads require Java 21 or later; they are looked up at runtime,
+ * so the server still builds and runs with the platform threads on Java 17.
+ */
+public class VirtualThreadPool implements ThreadPool {
+    private static final Logger logger = Logger.getLogger(VirtualThreadPool.class);
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new {@link ThreadPool} of virtual threads.
+     *
+     * @throws IllegalStateException if virtual threads are not supported.
+     */
+    public VirtualThreadPool() {
+        executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later");
+        }
+    }
+
+    /**
+     * Checks whether the running JVM supports virtual threads.
+     *
+     * @return true if virtual threads are supported, false otherwise.
+     */
+    public static boolean isSupported() {
+        return getFactoryMethod() != null;
+    }
+
+    /**
+     * @see ThreadPool#enqueueTask(Runnable)
+     */
+    @Override
+    public boolean enqueueTask(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Cannot accept the task for execution", e);
+            return false;
+        }
+    }
+
+    /**
+     * @see ThreadPool#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @see ThreadPool#shutdownNow()
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    /**
+     * @see ThreadPool#awaitTermination(long, TimeUnit)
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Returns the Executors#newVirtualThreadPerTaskExecutor() method.
+     *
+     * @return the method if found, null otherwise.
+     */
+    private static Method getFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates an {@link ExecutorService} that starts a new virtual thread per task.
+     *
+     * @return the {@link ExecutorService} if supported, null otherwise.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method method = getFactoryMethod();
+        if (method == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            logger.error("Could not create the virtual thread executor", e);
+            return null;
+        }
+    }
+}
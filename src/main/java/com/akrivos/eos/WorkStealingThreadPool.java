@@ -0,0 +1,95 @@
+package com.akrivos.eos;
+
+import com.akrivos.eos.config.Settings;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link ThreadPool} based on a {@link ForkJoinPool} in async (FIFO) mode.
+ * Every worker has its own deque of tasks and idle workers steal tasks from
+ * the others, so there is no single queue lock for every enqueued task to
+ * contend on. Tasks forked by a handler (e.g. rendering parts of a directory
+ * listing) can also be stolen and run on other cores.
+ * <p/>
+ * Handling a connection blocks on socket and file I/O, so every task runs as
+ * a {@link ForkJoinPool.ManagedBlocker}: while it is blocked, the pool may
+ * start a spare worker, so that a few slow clients cannot starve the other
+ * tasks, including the ones forked by the handlers.
+ */
+public class WorkStealingThreadPool extends ForkJoinPool implements ThreadPool {
+    private static final Logger logger = Logger.getLogger(WorkStealingThreadPool.class);
+
+    /**
+     * Creates a {@link ThreadPool} with the maximum number of
+     * threads of the {@link Settings} as its parallelism.
+     */
+    public WorkStealingThreadPool() {
+        this(Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_MAX));
+    }
+
+    /**
+     * Creates a {@link ThreadPool} with the given parallelism.
+     *
+     * @param parallelism the number of worker threads.
+     */
+    public WorkStealingThreadPool(int parallelism) {
+        super(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * @see ThreadPool#enqueueTask(Runnable)
+     */
+    @Override
+    public boolean enqueueTask(Runnable task) {
+        try {
+            super.execute(new BlockingTask(task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Cannot accept the task for execution", e);
+            return false;
+        }
+    }
+
+    /**
+     * Runs a task that blocks as a {@link ForkJoinPool.ManagedBlocker}.
+     */
+    private static final class BlockingTask implements Runnable, ForkJoinPool.ManagedBlocker {
+        private final Runnable task;
+        private boolean done;
+
+        /**
+         * Creates a new BlockingTask.
+         *
+         * @param task the task.
+         */
+        private BlockingTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                task.run();
+            } finally {
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
@@ -5,9 +5,12 @@ import org.apache.log4j.Logger;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -28,7 +31,91 @@ public enum Settings {
     public static final SettingKey<String> SERVER_INDEX_NAMES =
             new SettingKey<String>("server.index.names", "index.html index.htm");
 
+    public static final SettingKey<Integer> SERVER_KEEPALIVE_TIMEOUT =
+            new SettingKey<Integer>("server.keepalive.timeout", 15);
+
+    public static final SettingKey<Integer> SERVER_KEEPALIVE_MAX =
+            new SettingKey<Integer>("server.keepalive.max", 100);
+
+    public static final SettingKey<Integer> SERVER_TIMEOUT_HEADER =
+            new SettingKey<Integer>("server.timeout.header", 10);
+
+    public static final SettingKey<Integer> SERVER_TIMEOUT_BODY =
+            new SettingKey<Integer>("server.timeout.body", 30);
+
+    public static final SettingKey<Integer> SERVER_TIMEOUT_WRITE =
+            new SettingKey<Integer>("server.timeout.write", 30);
+
+    public static final SettingKey<Integer> SERVER_BODY_MAX =
+            new SettingKey<Integer>("server.body.max", 10 * 1024 * 1024);
+
+    public static final SettingKey<Integer> SERVER_MULTIPART_THRESHOLD =
+            new SettingKey<Integer>("server.multipart.threshold", 16 * 1024);
+
+    public static final SettingKey<Integer> SERVER_CACHE_SIZE =
+            new SettingKey<Integer>("server.cache.size", 16 * 1024 * 1024);
+
+    public static final SettingKey<Integer> SERVER_MMAP_SIZE =
+            new SettingKey<Integer>("server.mmap.size", 1024 * 1024);
+
+    public static final SettingKey<Integer> SERVER_MMAP_FILES =
+            new SettingKey<Integer>("server.mmap.files", 256);
+
+    public static final SettingKey<String> SERVER_ETAG =
+            new SettingKey<String>("server.etag", "stat");
+
+    public static final SettingKey<Integer> SERVER_SHUTDOWN_TIMEOUT =
+            new SettingKey<Integer>("server.shutdown.timeout", 30);
+
+    public static final SettingKey<Integer> SERVER_PIPELINE_DEPTH =
+            new SettingKey<Integer>("server.pipeline.depth", 16);
+
+    public static final SettingKey<Integer> SERVER_ACCEPTORS =
+            new SettingKey<Integer>("server.acceptors", 2);
+
+    public static final SettingKey<Integer> SERVER_CONNECTIONS_MAX =
+            new SettingKey<Integer>("server.connections.max", 10000);
+
+    public static final SettingKey<Integer> SERVER_QUEUE_MAX =
+            new SettingKey<Integer>("server.queue.max", 1024);
+
+    public static final SettingKey<Integer> SERVER_OVERLOAD_RETRY =
+            new SettingKey<Integer>("server.overload.retry", 5);
+
+    public static final SettingKey<Boolean> SERVER_OVERLOAD_DROP =
+            new SettingKey<Boolean>("server.overload.drop", false);
+
+    public static final SettingKey<String> SERVER_CONNECTOR =
+            new SettingKey<String>("server.connector", "socket");
+
+    public static final SettingKey<Integer> SERVER_SELECTORS =
+            new SettingKey<Integer>("server.selectors",
+                    Runtime.getRuntime().availableProcessors());
+
+    public static final SettingKey<String> SERVER_THREADPOOL =
+            new SettingKey<String>("server.threadpool", "platform");
+
+    public static final SettingKey<Integer> SERVER_THREADS_CORE =
+            new SettingKey<Integer>("server.threads.core", 16);
+
+    public static final SettingKey<Integer> SERVER_THREADS_MAX =
+            new SettingKey<Integer>("server.threads.max", 64);
+
+    public static final SettingKey<Integer> SERVER_THREADS_KEEPALIVE =
+            new SettingKey<Integer>("server.threads.keepalive", 60);
+
+    public static final SettingKey<Integer> SERVER_THREADS_QUEUE =
+            new SettingKey<Integer>("server.threads.queue", 128);
+
+    public static final SettingKey<Boolean> SERVER_THREADS_ADAPTIVE =
+            new SettingKey<Boolean>("server.threads.adaptive", false);
+
+    public static final SettingKey<Integer> SERVER_THREADS_ADAPTIVE_WAIT =
+            new SettingKey<Integer>("server.threads.adaptive.wait", 10);
+
     private static final Logger logger = Logger.getLogger(Settings.class);
+    private static final Set<String> THREAD_POOLS =
+            new HashSet<String>(Arrays.asList("platform", "virtual", "forkjoin"));
     private final Map<String, String> map;
 
     /**
@@ -98,6 +185,28 @@ public enum Settings {
         }
     }
 
+    /**
+     * Returns the value for a setting as a boolean. If the key is found, it
+     * returns the value, otherwise, it returns the setting's default value.
+     *
+     * @param settingKey the setting's key.
+     * @return if found, it returns the value as boolean, otherwise,
+     *         it returns the setting's default value.
+     */
+    public boolean getValueAsBooleanFor(SettingKey<Boolean> settingKey) {
+        String value = map.get(settingKey.getKey());
+        if (value != null) {
+            return Boolean.parseBoolean(value.trim());
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("There is no setting for " + settingKey.getKey()
+                    + ". Returning default value: "
+                    + settingKey.getDefaultValue());
+        }
+        return settingKey.getDefaultValue();
+    }
+
     /**
      * Loads the configuration from a properties file.
      *
@@ -156,6 +265,148 @@ public enum Settings {
                 return false;
             }
 
+            int keepAliveTimeout = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_KEEPALIVE_TIMEOUT);
+            if (keepAliveTimeout < 1) {
+                logger.error("Error in server configuration: The keep-alive "
+                        + "timeout must be at least 1 second (" + keepAliveTimeout + ")");
+                return false;
+            }
+
+            int keepAliveMax = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_KEEPALIVE_MAX);
+            if (keepAliveMax < 1) {
+                logger.error("Error in server configuration: The maximum "
+                        + "requests per connection must be at least 1 (" + keepAliveMax + ")");
+                return false;
+            }
+
+            int headerTimeout = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_TIMEOUT_HEADER);
+            int bodyTimeout = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_TIMEOUT_BODY);
+            int writeTimeout = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_TIMEOUT_WRITE);
+            if (headerTimeout < 1 || bodyTimeout < 1 || writeTimeout < 1) {
+                logger.error("Error in server configuration: The header, body "
+                        + "and write timeouts must be at least 1 second ("
+                        + headerTimeout + ", " + bodyTimeout + ", " + writeTimeout + ")");
+                return false;
+            }
+
+            int bodyMax = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_BODY_MAX);
+            if (bodyMax < 0) {
+                logger.error("Error in server configuration: The maximum "
+                        + "request body size cannot be negative (" + bodyMax + ")");
+                return false;
+            }
+
+            int multipartThreshold = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_MULTIPART_THRESHOLD);
+            if (multipartThreshold < 0) {
+                logger.error("Error in server configuration: The multipart "
+                        + "threshold cannot be negative (" + multipartThreshold + ")");
+                return false;
+            }
+
+            int cacheSize = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_CACHE_SIZE);
+            if (cacheSize < 0) {
+                logger.error("Error in server configuration: The size "
+                        + "of the content cache cannot be negative (" + cacheSize + ")");
+                return false;
+            }
+
+            int mmapSize = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_MMAP_SIZE);
+            if (mmapSize < 0) {
+                logger.error("Error in server configuration: The maximum size "
+                        + "of mapped files cannot be negative (" + mmapSize + ")");
+                return false;
+            }
+
+            int mmapFiles = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_MMAP_FILES);
+            if (mmapFiles < 0) {
+                logger.error("Error in server configuration: The number "
+                        + "of mapped files cannot be negative (" + mmapFiles + ")");
+                return false;
+            }
+
+            String etag = Settings.INSTANCE.getValueFor(Settings.SERVER_ETAG);
+            if (!etag.equals("stat") && !etag.equals("hash")) {
+                logger.error("Error in server configuration: The entity tags "
+                        + "are not one of stat, hash (" + etag + ")");
+                return false;
+            }
+
+            int shutdownTimeout = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_SHUTDOWN_TIMEOUT);
+            if (shutdownTimeout < 0) {
+                logger.error("Error in server configuration: The shutdown "
+                        + "timeout cannot be negative (" + shutdownTimeout + ")");
+                return false;
+            }
+
+            int pipelineDepth = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_PIPELINE_DEPTH);
+            if (pipelineDepth < 1) {
+                logger.error("Error in server configuration: The pipeline "
+                        + "depth must be at least 1 (" + pipelineDepth + ")");
+                return false;
+            }
+
+            int acceptors = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_ACCEPTORS);
+            if (acceptors < 1) {
+                logger.error("Error in server configuration: The number of "
+                        + "acceptors must be at least 1 (" + acceptors + ")");
+                return false;
+            }
+
+            int maxConnections = Settings.INSTANCE.getValueAsIntegerFor(
+                    Settings.SERVER_CONNECTIONS_MAX);
+            int maxQueued = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_QUEUE_MAX);
+            if (maxConnections < 1 || maxQueued < 1) {
+                logger.error("Error in server configuration: The maximum number of "
+                        + "connections and queued connections must be at least 1 ("
+                        + maxConnections + ", " + maxQueued + ")");
+                return false;
+            }
+
+            String connector = Settings.INSTANCE.getValueFor(Settings.SERVER_CONNECTOR);
+            if (!connector.equals("socket") && !connector.equals("nio")) {
+                logger.error("Error in server configuration: The server connector "
+                        + "is not one of socket, nio (" + connector + ")");
+                return false;
+            }
+
+            int selectors = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_SELECTORS);
+            if (selectors < 1) {
+                logger.error("Error in server configuration: The number of "
+                        + "selectors must be at least 1 (" + selectors + ")");
+                return false;
+            }
+
+            String threadPool = Settings.INSTANCE.getValueFor(Settings.SERVER_THREADPOOL);
+            if (!THREAD_POOLS.contains(threadPool)) {
+                logger.error("Error in server configuration: The server thread pool "
+                        + "is not one of platform, virtual, forkjoin (" + threadPool + ")");
+                return false;
+            }
+
+            int coreThreads = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_CORE);
+            int maxThreads = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_MAX);
+            if (coreThreads < 1 || maxThreads < coreThreads) {
+                logger.error("Error in server configuration: The core threads must be "
+                        + "at least 1 and at most the maximum threads ("
+                        + coreThreads + ", " + maxThreads + ")");
+                return false;
+            }
+
+            int queueSize = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_THREADS_QUEUE);
+            if (queueSize < 1) {
+                logger.error("Error in server configuration: The thread pool "
+                        + "queue size must be at least 1 (" + queueSize + ")");
+                return false;
+            }
+
             if (logger.isTraceEnabled()) {
                 logger.trace("Server configuration validated successfully");
             }
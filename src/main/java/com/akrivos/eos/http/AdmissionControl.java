@@ -0,0 +1,293 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.config.Settings;
+import com.akrivos.eos.http.constants.HttpResponseHeader;
+import com.akrivos.eos.http.constants.HttpStatusCode;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent connections and the number of connections
+ * queued for handling, for a {@link com.akrivos.eos.Connector}. Connections
+ * over the limits are answered right away with a pre-serialized
+ * 503 Service Unavailable response and closed, or, optionally, dropped
+ * on accept, so under overload clients fail fast instead of piling up.
+ * <p/>
+ * A rejected connection is closed a moment after the 503, discarding the
+ * request the client has sent meanwhile: closing a socket with unread data
+ * resets the connection, which may destroy the 503 before the client reads it.
+ */
+public class AdmissionControl {
+    private static final Logger logger = Logger.getLogger(AdmissionControl.class);
+    private static final long LINGER_MILLIS = 1000;
+    private static final int MAX_LINGERING = 1024;
+    private static final int MAX_DISCARDED = 64 * 1024;
+
+    private final int maxConnections;
+    private final int maxQueued;
+    private final boolean dropOnAccept;
+    private final byte[] serviceUnavailable;
+    private final AtomicInteger connections;
+    private final AtomicInteger queued;
+    private final AtomicLong rejected;
+    private final AtomicInteger lingering;
+    private final ScheduledExecutorService closer;
+
+    /**
+     * Creates a new AdmissionControl with the limits from the {@link Settings}.
+     */
+    public AdmissionControl() {
+        this(Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_CONNECTIONS_MAX),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_QUEUE_MAX),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_OVERLOAD_RETRY),
+                Settings.INSTANCE.getValueAsBooleanFor(Settings.SERVER_OVERLOAD_DROP));
+    }
+
+    /**
+     * Creates a new AdmissionControl with the given limits.
+     *
+     * @param maxConnections the maximum number of concurrent connections.
+     * @param maxQueued      the maximum number of connections waiting
+     *                       to be handled by the ThreadPool.
+     * @param retryAfter     the number of seconds the clients are asked
+     *                       to wait before retrying.
+     * @param dropOnAccept   whether the connections over the limit are
+     *                       dropped on accept, without any response.
+     */
+    public AdmissionControl(int maxConnections, int maxQueued,
+                            int retryAfter, boolean dropOnAccept) {
+        this.maxConnections = maxConnections;
+        this.maxQueued = maxQueued;
+        this.dropOnAccept = dropOnAccept;
+        connections = new AtomicInteger();
+        queued = new AtomicInteger();
+        rejected = new AtomicLong();
+        lingering = new AtomicInteger();
+        closer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "eos-reject-closer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        HttpStatusCode status = HttpStatusCode.SERVICE_UNAVAILABLE;
+        String response = HttpServer.HTTP_VERSION + HttpServer.SP
+                + status.getStatusCode() + HttpServer.SP
+                + status.getReasonPhrase() + HttpServer.CRLF
+                + HttpResponseHeader.RetryAfter.getName() + ": " + retryAfter + HttpServer.CRLF
+                + HttpResponseHeader.ContentLength.getName() + ": 0" + HttpServer.CRLF
+                + HttpResponseHeader.Connection.getName() + ": close" + HttpServer.CRLF
+                + HttpResponseHeader.Server.getName() + ": " + HttpServer.SERVER_NAME + HttpServer.CRLF
+                + HttpServer.CRLF;
+        serviceUnavailable = response.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Admits a new connection, if the connections limit is not reached.
+     * Every admitted connection must be released with {@link #release()}.
+     *
+     * @return true if the connection is admitted, false otherwise.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = connections.get();
+            if (current >= maxConnections) {
+                return false;
+            }
+            if (connections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases an admitted connection, once it is closed.
+     */
+    public void release() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Admits a connection to the ThreadPool queue, if the queue limit is
+     * not reached. Every queued connection must be removed from the queue
+     * with {@link #dequeued()}, once it is picked up or rejected.
+     *
+     * @return true if the connection can be queued, false otherwise.
+     */
+    public boolean tryEnqueue() {
+        while (true) {
+            int current = queued.get();
+            if (current >= maxQueued) {
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes a connection from the ThreadPool queue.
+     */
+    public void dequeued() {
+        queued.decrementAndGet();
+    }
+
+    /**
+     * Refuses a connection right after it has been accepted, either by
+     * dropping it or by rejecting it with a 503 Service Unavailable.
+     *
+     * @param socket the client {@link Socket}.
+     */
+    public void refuse(Socket socket) {
+        if (!dropOnAccept) {
+            reject(socket);
+            return;
+        }
+        rejected.incrementAndGet();
+        try {
+            // reset the connection, so it does not linger in TIME_WAIT
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Error while dropping a connection", e);
+        }
+    }
+
+    /**
+     * Refuses a connection right after it has been accepted, either by
+     * dropping it or by rejecting it with a 503 Service Unavailable.
+     *
+     * @param channel the client {@link SocketChannel}.
+     */
+    public void refuse(SocketChannel channel) {
+        refuse(channel.socket());
+    }
+
+    /**
+     * Rejects a connection with the pre-serialized 503 Service Unavailable
+     * response and closes it, once the client has had time to read it.
+     *
+     * @param socket the client {@link Socket}.
+     */
+    public void reject(final Socket socket) {
+        rejected.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rejecting connection from " + socket.getRemoteSocketAddress());
+        }
+        try {
+            SocketChannel channel = socket.getChannel();
+            if (channel != null && !channel.isBlocking()) {
+                // a single attempt, the response fits in the socket buffer
+                channel.write(ByteBuffer.wrap(serviceUnavailable));
+            } else {
+                socket.getOutputStream().write(serviceUnavailable);
+            }
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            logger.debug("Error while rejecting a connection", e);
+            close(socket);
+            return;
+        }
+        // do not keep too many sockets open while overloaded
+        if (lingering.incrementAndGet() > MAX_LINGERING) {
+            lingering.decrementAndGet();
+            close(socket);
+            return;
+        }
+        closer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    discardInput(socket);
+                } finally {
+                    lingering.decrementAndGet();
+                    close(socket);
+                }
+            }
+        }, LINGER_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Discards what the client of a rejected connection has sent, without
+     * blocking, so that closing the socket does not reset the connection.
+     *
+     * @param socket the client {@link Socket}.
+     */
+    private static void discardInput(Socket socket) {
+        try {
+            SocketChannel channel = socket.getChannel();
+            int discarded = 0;
+            if (channel != null && !channel.isBlocking()) {
+                ByteBuffer buffer = ByteBuffer.allocate(4 * 1024);
+                int bytesRead;
+                while (discarded < MAX_DISCARDED && (bytesRead = channel.read(buffer)) > 0) {
+                    discarded += bytesRead;
+                    buffer.clear();
+                }
+            } else {
+                InputStream in = socket.getInputStream();
+                int available;
+                while (discarded < MAX_DISCARDED && (available = in.available()) > 0) {
+                    discarded += (int) in.skip(available);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Error while discarding the request of a rejected connection", e);
+        }
+    }
+
+    /**
+     * Closes the socket of a rejected connection.
+     *
+     * @param socket the client {@link Socket}.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Error while closing a rejected connection", e);
+        }
+    }
+
+    /**
+     * Returns the number of connections currently admitted.
+     *
+     * @return the number of connections.
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Returns the number of connections currently queued.
+     *
+     * @return the number of queued connections.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the total number of connections rejected or dropped.
+     *
+     * @return the number of rejected connections.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+}
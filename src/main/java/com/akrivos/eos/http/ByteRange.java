@@ -0,0 +1,147 @@
+package com.akrivos.eos.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes of a representation, requested with a Range header
+ * (RFC 7233, section 2.1), from its first to its last byte, inclusive.
+ */
+public class ByteRange {
+    private static final String BYTES_UNIT = "bytes=";
+    private static final int MAX_RANGES = 16;
+
+    private final long first;
+    private final long last;
+
+    /**
+     * Creates a new {@link ByteRange}.
+     *
+     * @param first the position of the first byte.
+     * @param last  the position of the last byte.
+     */
+    public ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parses the byte ranges of a Range header against the length of the
+     * representation, e.g. bytes=0-499, bytes=500-, bytes=-500 (the last
+     * 500 bytes) or bytes=0-0,-1. Ranges past the end are shortened, while
+     * ranges starting past the end cannot be satisfied and are left out.
+     *
+     * @param header the value of the Range header.
+     * @param length the length of the representation.
+     * @return the satisfiable {@link ByteRange}s in the requested order, empty if
+     *         none is satisfiable, or null if the header is not valid or asks for
+     *         too many ranges, in which case it is ignored.
+     */
+    public static List<ByteRange> parse(String header, long length) {
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<ByteRange>(1);
+        int specs = 0;
+        for (String spec : header.substring(BYTES_UNIT.length()).split(",")) {
+            spec = spec.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            if (++specs > MAX_RANGES) {
+                return null;
+            }
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            if (dash == 0) {
+                // a suffix: the last bytes of the representation
+                long suffix = parsePosition(spec, 1, spec.length());
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix > 0 && length > 0) {
+                    ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+                }
+                continue;
+            }
+            long first = parsePosition(spec, 0, dash);
+            long last = dash + 1 == spec.length()
+                    ? Long.MAX_VALUE
+                    : parsePosition(spec, dash + 1, spec.length());
+            if (first < 0 || last < first) {
+                return null;
+            }
+            if (first < length) {
+                ranges.add(new ByteRange(first, Math.min(last, length - 1)));
+            }
+        }
+        return specs > 0 ? ranges : null;
+    }
+
+    /**
+     * Returns the position of the first byte.
+     *
+     * @return the position of the first byte.
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * Returns the position of the last byte.
+     *
+     * @return the position of the last byte.
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * Returns the number of bytes in the range.
+     *
+     * @return the number of bytes.
+     */
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header of the range.
+     *
+     * @param length the length of the representation.
+     * @return e.g. bytes 0-499/1234.
+     */
+    public String toContentRange(long length) {
+        return "bytes " + first + "-" + last + "/" + length;
+    }
+
+    /**
+     * Parses a byte position, which must only have decimal digits.
+     *
+     * @param spec  the range spec.
+     * @param start the index of the first digit.
+     * @param end   the index after the last digit.
+     * @return the position, or -1 if it is not valid.
+     */
+    private static long parsePosition(String spec, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long position = 0;
+        for (int i = start; i < end; i++) {
+            char c = spec.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            position = position * 10 + (c - '0');
+        }
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+}
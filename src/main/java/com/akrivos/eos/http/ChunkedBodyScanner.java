@@ -0,0 +1,201 @@
+package com.akrivos.eos.http;
+
+/**
+ * Finds the end of a chunked request body (RFC 7230, section 4.1) without
+ * decoding it, in as many parts as the body happens to arrive in. The state
+ * is kept between the parts, so every byte is only looked at once, however
+ * many reads the body takes; the chunk data itself is skipped over.
+ */
+public class ChunkedBodyScanner {
+    private static final int MAX_CHUNK_LINE_LENGTH = 4096;
+
+    /**
+     * The states of the scanner.
+     */
+    private enum State {
+        SIZE,
+        EXTENSION,
+        SIZE_LF,
+        DATA,
+        DATA_CR,
+        DATA_LF,
+        TRAILER_START,
+        TRAILER,
+        TRAILER_LF,
+        LAST_LF,
+        COMPLETE,
+        MALFORMED
+    }
+
+    private final long maxSize;
+    private State state;
+    private long chunkSize;
+    private int digits;
+    private int lineLength;
+    private long size;
+
+    /**
+     * Creates a new ChunkedBodyScanner, starting at the first chunk.
+     *
+     * @param maxSize the maximum size of the (decoded) body.
+     */
+    public ChunkedBodyScanner(long maxSize) {
+        this.maxSize = maxSize;
+        state = State.SIZE;
+    }
+
+    /**
+     * Scans the next part of the body, which starts where the previous one ended.
+     *
+     * @param data the bytes.
+     * @param from the index the part starts at.
+     * @param to   the index the part ends at.
+     * @return the index right after the body if it ends in this part, -1 if more
+     *         bytes are needed, or the end of the part if the body is malformed
+     *         or too large, so that the one reading the body rejects it.
+     */
+    public int scan(byte[] data, int from, int to) {
+        int i = from;
+        while (i < to) {
+            switch (state) {
+                case DATA:
+                    long skipped = Math.min(chunkSize, to - i);
+                    chunkSize -= skipped;
+                    i += (int) skipped;
+                    if (chunkSize == 0) {
+                        state = State.DATA_CR;
+                    }
+                    continue;
+                case COMPLETE:
+                    return i;
+                case MALFORMED:
+                    return to;
+                default:
+                    next(data[i++]);
+            }
+        }
+        if (state == State.COMPLETE) {
+            return to;
+        }
+        return state == State.MALFORMED ? to : -1;
+    }
+
+    /**
+     * Moves the state machine over a byte of a size, trailer or line end.
+     *
+     * @param c the byte.
+     */
+    private void next(byte c) {
+        if (++lineLength > MAX_CHUNK_LINE_LENGTH) {
+            state = State.MALFORMED;
+            return;
+        }
+        switch (state) {
+            case SIZE:
+                int digit = Character.digit(c, 16);
+                if (digit >= 0 && ++digits <= 15) {
+                    chunkSize = chunkSize * 16 + digit;
+                } else if (digits > 0 && (c == ';' || c == ' ' || c == '\t')) {
+                    state = State.EXTENSION;
+                } else if (digits > 0 && c == '\r') {
+                    state = State.SIZE_LF;
+                } else if (digits > 0 && c == '\n') {
+                    endSizeLine();
+                } else {
+                    state = State.MALFORMED;
+                }
+                break;
+            case EXTENSION:
+                // chunk extensions are ignored
+                if (c == '\r') {
+                    state = State.SIZE_LF;
+                } else if (c == '\n') {
+                    endSizeLine();
+                }
+                break;
+            case SIZE_LF:
+                if (c == '\n') {
+                    endSizeLine();
+                } else {
+                    state = State.MALFORMED;
+                }
+                break;
+            case DATA_CR:
+                // the chunk data must be followed by CRLF
+                if (c == '\r') {
+                    state = State.DATA_LF;
+                } else if (c == '\n') {
+                    startLine(State.SIZE);
+                } else {
+                    state = State.MALFORMED;
+                }
+                break;
+            case DATA_LF:
+                if (c == '\n') {
+                    startLine(State.SIZE);
+                } else {
+                    state = State.MALFORMED;
+                }
+                break;
+            case TRAILER_START:
+                // an empty line ends the trailers, and the body
+                if (c == '\r') {
+                    state = State.LAST_LF;
+                } else if (c == '\n') {
+                    state = State.COMPLETE;
+                } else {
+                    state = State.TRAILER;
+                }
+                break;
+            case TRAILER:
+                if (c == '\r') {
+                    state = State.TRAILER_LF;
+                } else if (c == '\n') {
+                    startLine(State.TRAILER_START);
+                }
+                break;
+            case TRAILER_LF:
+                if (c == '\n') {
+                    startLine(State.TRAILER_START);
+                } else {
+                    state = State.MALFORMED;
+                }
+                break;
+            case LAST_LF:
+                state = c == '\n' ? State.COMPLETE : State.MALFORMED;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Ends a chunk size line, moving to the chunk data, or to
+     * the trailers after the last chunk.
+     */
+    private void endSizeLine() {
+        if (chunkSize == 0) {
+            startLine(State.TRAILER_START);
+            return;
+        }
+        size += chunkSize;
+        if (size > maxSize) {
+            state = State.MALFORMED;
+            return;
+        }
+        state = State.DATA;
+        lineLength = 0;
+    }
+
+    /**
+     * Starts a new line in the given state.
+     *
+     * @param lineState the {@link State} of the line.
+     */
+    private void startLine(State lineState) {
+        state = lineState;
+        lineLength = 0;
+        chunkSize = 0;
+        digits = 0;
+    }
+}
@@ -0,0 +1,380 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.Connector;
+import com.akrivos.eos.http.constants.ConnectionPhase;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The live state of an open connection, as kept in the
+ * {@link ConnectionRegistry}. The state is updated by the threads serving
+ * the connection without any locking, except for the phase changes, which
+ * are handed to the {@link TimeoutService}, and can be read at any time.
+ */
+public class ConnectionInfo {
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+
+    private final Connector connector;
+    private final Socket socket;
+    private final Closeable connection;
+    private final SocketAddress remoteAddress;
+    private final long createdAt;
+    private final AtomicLong bytesIn;
+    private final AtomicLong bytesOut;
+    private final AtomicInteger requests;
+    private volatile ConnectionPhase phase;
+    private volatile long phaseStart;
+    private volatile long lastActivity;
+    private volatile boolean open;
+    private volatile TimeoutService timeouts;
+    private long scheduledTick;
+
+    /**
+     * Creates a new ConnectionInfo.
+     *
+     * @param connector  the {@link Connector} that accepted the connection.
+     * @param socket     the {@link Socket} handed to the handler.
+     * @param connection the connection, closed when the connector stops.
+     */
+    public ConnectionInfo(Connector connector, Socket socket, Closeable connection) {
+        this.connector = connector;
+        this.socket = socket;
+        this.connection = connection;
+        remoteAddress = socket.getRemoteSocketAddress();
+        createdAt = System.currentTimeMillis();
+        bytesIn = new AtomicLong();
+        bytesOut = new AtomicLong();
+        requests = new AtomicInteger();
+        phase = ConnectionPhase.IDLE;
+        phaseStart = createdAt;
+        lastActivity = createdAt;
+        open = true;
+    }
+
+    /**
+     * Returns the {@link Connector} that accepted the connection.
+     *
+     * @return the {@link Connector}.
+     */
+    public Connector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Returns the {@link Socket} of the connection.
+     *
+     * @return the {@link Socket}.
+     */
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Returns the address of the client.
+     *
+     * @return the remote {@link SocketAddress}.
+     */
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Returns the time the connection was accepted.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns the number of bytes read from the connection.
+     *
+     * @return the number of bytes read.
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Returns the number of bytes written to the connection.
+     *
+     * @return the number of bytes written.
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Returns the number of requests served on the connection.
+     *
+     * @return the number of requests served.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the current {@link ConnectionPhase} of the connection.
+     *
+     * @return the current {@link ConnectionPhase}.
+     */
+    public ConnectionPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Moves the connection to the given {@link ConnectionPhase}. Moving
+     * to the phase the connection is already in does not restart it.
+     * A phase with a shorter timeout is enforced from when it starts.
+     *
+     * @param phase the {@link ConnectionPhase}.
+     */
+    public void setPhase(ConnectionPhase phase) {
+        long now = System.currentTimeMillis();
+        lastActivity = now;
+        if (this.phase != phase) {
+            phaseStart = now;
+            this.phase = phase;
+            TimeoutService service = timeouts;
+            if (service != null) {
+                service.reschedule(this);
+            }
+        }
+    }
+
+    /**
+     * Sets the {@link TimeoutService} enforcing the timeouts of the connection.
+     *
+     * @param timeouts the {@link TimeoutService}.
+     */
+    void setTimeouts(TimeoutService timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Returns the tick of the slot the {@link TimeoutService} last put the
+     * connection in. Guarded by the lock of the connection.
+     *
+     * @return the tick.
+     */
+    long getScheduledTick() {
+        return scheduledTick;
+    }
+
+    /**
+     * Sets the tick of the slot the {@link TimeoutService} put the
+     * connection in. Guarded by the lock of the connection.
+     *
+     * @param scheduledTick the tick.
+     */
+    void setScheduledTick(long scheduledTick) {
+        this.scheduledTick = scheduledTick;
+    }
+
+    /**
+     * Returns the time the connection entered its current phase.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getPhaseStart() {
+        return phaseStart;
+    }
+
+    /**
+     * Returns the last time data was read from or written to the
+     * connection, or its phase changed.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Counts a served request and moves the connection
+     * to the {@link ConnectionPhase#IDLE} phase.
+     */
+    public void requestServed() {
+        requests.incrementAndGet();
+        setPhase(ConnectionPhase.IDLE);
+    }
+
+    /**
+     * Wraps an {@link InputStream} of the connection,
+     * counting the bytes read from it.
+     *
+     * @param in the {@link InputStream}.
+     * @return the counting {@link InputStream}.
+     */
+    public InputStream countInput(InputStream in) {
+        return new CountingInputStream(in);
+    }
+
+    /**
+     * Wraps an {@link OutputStream} of the connection,
+     * counting the bytes written to it.
+     *
+     * @param out the {@link OutputStream}.
+     * @return the counting {@link OutputStream}.
+     */
+    public OutputStream countOutput(OutputStream out) {
+        if (out instanceof FileTransferable) {
+            return new CountingTransferOutputStream(out);
+        }
+        return new CountingOutputStream(out);
+    }
+
+    /**
+     * Checks if the connection is still registered as open.
+     *
+     * @return true if the connection is open, false otherwise.
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Marks the connection as closed, once it is removed from the registry.
+     */
+    void closed() {
+        open = false;
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException any exception that might occur.
+     */
+    public void close() throws IOException {
+        connection.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s, requests=%d, in=%d, out=%d, idle=%dms]",
+                remoteAddress, phase, getRequests(), getBytesIn(), getBytesOut(),
+                System.currentTimeMillis() - lastActivity);
+    }
+
+    /**
+     * An {@link InputStream} adding the bytes read to the connection's counter.
+     */
+    private class CountingInputStream extends FilterInputStream {
+        /**
+         * Creates a new CountingInputStream.
+         *
+         * @param in the underlying {@link InputStream}.
+         */
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                bytesIn.incrementAndGet();
+                lastActivity = System.currentTimeMillis();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count > 0) {
+                bytesIn.addAndGet(count);
+                lastActivity = System.currentTimeMillis();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * An {@link OutputStream} adding the bytes written to the connection's counter.
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        /**
+         * Creates a new CountingOutputStream.
+         *
+         * @param out the underlying {@link OutputStream}.
+         */
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesOut.incrementAndGet();
+            lastActivity = System.currentTimeMillis();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesOut.addAndGet(len);
+            lastActivity = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A {@link CountingOutputStream} which can also send files, counting the
+     * bytes sent every {@link #TRANSFER_CHUNK_SIZE} bytes, so that a large file
+     * being sent is not taken for a stalled connection.
+     */
+    private class CountingTransferOutputStream extends CountingOutputStream
+            implements FileTransferable {
+        /**
+         * Creates a new CountingTransferOutputStream.
+         *
+         * @param out the underlying {@link OutputStream}, which is {@link FileTransferable}.
+         */
+        public CountingTransferOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public long transferFrom(FileChannel file, long position, long count)
+                throws IOException {
+            long transferred = 0;
+            while (transferred < count) {
+                long sent = ((FileTransferable) out).transferFrom(file,
+                        position + transferred,
+                        Math.min(count - transferred, TRANSFER_CHUNK_SIZE));
+                if (sent <= 0) {
+                    break;
+                }
+                transferred += sent;
+                bytesOut.addAndGet(sent);
+                lastActivity = System.currentTimeMillis();
+            }
+            return transferred;
+        }
+
+        @Override
+        public void transferFrom(ByteBuffer buffer) throws IOException {
+            int limit = buffer.limit();
+            while (buffer.hasRemaining()) {
+                int sent = (int) Math.min(buffer.remaining(), TRANSFER_CHUNK_SIZE);
+                buffer.limit(buffer.position() + sent);
+                ((FileTransferable) out).transferFrom(buffer);
+                buffer.limit(limit);
+                bytesOut.addAndGet(sent);
+                lastActivity = System.currentTimeMillis();
+            }
+        }
+    }
+}
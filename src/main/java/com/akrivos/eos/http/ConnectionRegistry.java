@@ -0,0 +1,139 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.Connector;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An Enum singleton keeping track of all the open connections of the server,
+ * along with their live {@link ConnectionInfo}. It is backed by a
+ * {@link ConcurrentHashMap}, so adding and removing connections never takes
+ * a global lock, and iterating never fails while connections come and go.
+ * The timeouts of the registered connections are enforced by its
+ * {@link TimeoutService}.
+ */
+public enum ConnectionRegistry {
+    INSTANCE;
+
+    private static final Logger logger = Logger.getLogger(ConnectionRegistry.class);
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CONCURRENCY_LEVEL = 64;
+
+    private final ConcurrentMap<Socket, ConnectionInfo> connections;
+    private final TimeoutService timeouts;
+
+    /**
+     * Initialises the singleton instance.
+     */
+    private ConnectionRegistry() {
+        connections = new ConcurrentHashMap<Socket, ConnectionInfo>(
+                INITIAL_CAPACITY, 0.75f, CONCURRENCY_LEVEL);
+        timeouts = new TimeoutService();
+        timeouts.start();
+    }
+
+    /**
+     * Registers an open connection and starts enforcing its timeouts.
+     *
+     * @param connector  the {@link Connector} that accepted the connection.
+     * @param socket     the {@link Socket} handed to the handler.
+     * @param connection the connection, closed when the connector stops.
+     * @return the {@link ConnectionInfo} of the connection.
+     */
+    public ConnectionInfo register(Connector connector, Socket socket,
+                                   Closeable connection) {
+        ConnectionInfo info = new ConnectionInfo(connector, socket, connection);
+        connections.put(socket, info);
+        timeouts.schedule(info);
+        return info;
+    }
+
+    /**
+     * Removes a closed connection.
+     *
+     * @param socket the {@link Socket} of the connection.
+     */
+    public void unregister(Socket socket) {
+        ConnectionInfo info = connections.remove(socket);
+        if (info != null) {
+            info.closed();
+        }
+    }
+
+    /**
+     * Returns the {@link ConnectionInfo} of a connection.
+     *
+     * @param socket the {@link Socket} of the connection.
+     * @return the {@link ConnectionInfo} if the connection is registered, null otherwise.
+     */
+    public ConnectionInfo get(Socket socket) {
+        return connections.get(socket);
+    }
+
+    /**
+     * Returns a live view of all the open connections.
+     *
+     * @return the {@link ConnectionInfo} of all the open connections.
+     */
+    public Collection<ConnectionInfo> getConnections() {
+        return Collections.unmodifiableCollection(connections.values());
+    }
+
+    /**
+     * Returns a snapshot of the open connections accepted by a {@link Connector}.
+     *
+     * @param connector the {@link Connector}.
+     * @return the {@link ConnectionInfo} of the connector's open connections.
+     */
+    public List<ConnectionInfo> getConnections(Connector connector) {
+        List<ConnectionInfo> list = new ArrayList<ConnectionInfo>();
+        for (ConnectionInfo info : connections.values()) {
+            if (info.getConnector() == connector) {
+                list.add(info);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the {@link TimeoutService} enforcing the timeouts of the connections.
+     *
+     * @return the {@link TimeoutService}.
+     */
+    public TimeoutService getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * Returns the number of open connections.
+     *
+     * @return the number of open connections.
+     */
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * Closes all the open connections accepted by a {@link Connector}.
+     *
+     * @param connector the {@link Connector}.
+     */
+    public void closeAll(Connector connector) {
+        for (ConnectionInfo info : getConnections(connector)) {
+            try {
+                info.close();
+            } catch (Exception e) {
+                logger.error("Error while closing the connection from "
+                        + info.getRemoteAddress(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,730 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.ContentEncoding;
+import com.akrivos.eos.http.constants.HttpResponseHeader;
+import com.akrivos.eos.utils.FrequencySketch;
+import com.akrivos.eos.utils.MimeTypes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * A cache of small files in memory, along with their encoded headers, keyed
+ * by the requested path, up to a total size in bytes. A hit is served without
+ * resolving the path, looking up the MIME type or touching the file, which is
+ * only checked for changes at most once per second.
+ * <p>
+ * The encoded variants of a file are cached as separate entries: the
+ * precompressed sidecar file, e.g. app.js.gz, if there is one that is not older
+ * than the file, or else the file compressed once, if its type is compressible.
+ * A file is only compressed if its variant would be admitted, as one that is
+ * turned away would be compressed again on every request; until then, it is
+ * sent as it is.
+ * <p>
+ * Entries are kept with W-TinyLFU: new entries go to a small LRU window, and
+ * the ones leaving the window are only admitted to the main space if they have
+ * been requested more often recently than the ones they would evict, according
+ * to a {@link FrequencySketch}. The main space is a segmented LRU, where entries
+ * hit again move from the probation to the protected segment. So a scan of many
+ * files requested once passes through the window without evicting the files
+ * requested again and again.
+ * <p>
+ * Lookups do not wait for each other: every lookup is recorded in a lock-free
+ * buffer, which is drained into the {@link FrequencySketch} and the segments by
+ * whichever thread holds the lock next. Only a lookup that finds the buffer full
+ * waits for the lock, to drain it, so no lookup goes unrecorded.
+ */
+public class ContentCache {
+    private static final long CHECK_INTERVAL = 1000;
+    private static final int MAX_ENTRY_SIZE = 64 * 1024;
+    private static final int MAX_COMPRESSED_FILE_SIZE = 1024 * 1024;
+    private static final int AVERAGE_ENTRY_SIZE = 8 * 1024;
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private final long capacity;
+    private final long windowCapacity;
+    private final long protectedCapacity;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final ReentrantLock lock;
+    private final FrequencySketch sketch;
+    private final AtomicReferenceArray<Object> reads;
+    private final AtomicLong readTail;
+    private volatile long readHead;
+    private final LinkedHashMap<String, Entry> window;
+    private final LinkedHashMap<String, Entry> probation;
+    private final LinkedHashMap<String, Entry> protectedSegment;
+    private long windowSize;
+    private long probationSize;
+    private long protectedSize;
+
+    /**
+     * Creates a new {@link ContentCache}.
+     *
+     * @param capacity the maximum size in bytes of the cached files, 0 to disable the cache.
+     */
+    public ContentCache(long capacity) {
+        this.capacity = capacity;
+        windowCapacity = capacity * WINDOW_PERCENT / 100;
+        protectedCapacity = (capacity - windowCapacity) * PROTECTED_PERCENT / 100;
+        entries = new ConcurrentHashMap<String, Entry>();
+        lock = new ReentrantLock();
+        sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE >> 2,
+                capacity / AVERAGE_ENTRY_SIZE));
+        reads = new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+        readTail = new AtomicLong();
+        window = new LinkedHashMap<String, Entry>();
+        probation = new LinkedHashMap<String, Entry>();
+        protectedSegment = new LinkedHashMap<String, Entry>();
+    }
+
+    /**
+     * Returns the cached file of the given path, if it has not changed.
+     *
+     * @param path     the requested path.
+     * @param encoding the {@link ContentEncoding} of the variant.
+     * @return the {@link Entry}, or null if the path is not cached.
+     */
+    public Entry get(String path, ContentEncoding encoding) {
+        if (capacity <= 0) {
+            return null;
+        }
+        String key = keyOf(path, encoding);
+        Entry entry = entries.get(key);
+        recordRead(entry != null ? entry : key);
+        return upToDate(entry);
+    }
+
+    /**
+     * Returns the cached file of the given path, if it has not changed,
+     * without recording the lookup, e.g. for a path that has just been
+     * looked up for another variant.
+     *
+     * @param path     the requested path.
+     * @param encoding the {@link ContentEncoding} of the variant.
+     * @return the {@link Entry}, or null if the path is not cached.
+     */
+    public Entry peek(String path, ContentEncoding encoding) {
+        if (capacity <= 0) {
+            return null;
+        }
+        return upToDate(entries.get(keyOf(path, encoding)));
+    }
+
+    /**
+     * Checks if an entry has not changed, at most once per second,
+     * removing it if it has.
+     *
+     * @param entry the {@link Entry}, or null.
+     * @return the {@link Entry}, or null if it is null or has changed.
+     */
+    private Entry upToDate(Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.checkedAt >= CHECK_INTERVAL && !entry.isUpToDate(now)) {
+            remove(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Reads a variant of a file that is small enough to be cached and offers it
+     * to the cache. Files with a compressible type are compressed with the
+     * highest level, but only if the variant would be admitted, so that it is
+     * compressed once; otherwise no variant is returned, and the file is sent
+     * as it is. The variant is returned even if it is not admitted after all,
+     * so that it is sent from memory, as it has already been read (or compressed).
+     *
+     * @param path     the requested path.
+     * @param file     the (canonical) {@link File}.
+     * @param encoding the {@link ContentEncoding} of the variant.
+     * @return the {@link Entry}, or null if the file is too large to be cached
+     *         or there is no such variant of it.
+     * @throws IOException any exception that might occur.
+     */
+    public Entry load(String path, File file, ContentEncoding encoding) throws IOException {
+        if (capacity <= 0) {
+            return null;
+        }
+        // the times are taken first, so that a change while reading is noticed later
+        long lastModified = file.lastModified();
+        long length = file.length();
+        String contentType = MimeTypes.INSTANCE.getMimeTypeFor(file.getPath());
+        boolean compressible = MimeTypes.INSTANCE.isCompressible(contentType);
+        File source = file;
+        long maxSize = MAX_ENTRY_SIZE;
+        boolean compress = false;
+        if (encoding != ContentEncoding.IDENTITY) {
+            File sidecar = findSidecar(file, encoding);
+            if (sidecar != null) {
+                source = sidecar;
+            } else if (compressible && length <= MAX_COMPRESSED_FILE_SIZE
+                    && wouldAdmit(keyOf(path, encoding), length + ENTRY_OVERHEAD)) {
+                maxSize = MAX_COMPRESSED_FILE_SIZE;
+                compress = true;
+            } else {
+                return null;
+            }
+        }
+        long sourceModified = source.lastModified();
+        byte[] content = read(source, Math.min(maxSize, capacity));
+        if (content == null) {
+            return null;
+        }
+        long sourceLength = content.length;
+        String entityTag = EntityTags.INSTANCE.getEntityTag(source, sourceModified, content,
+                encoding);
+        if (compress) {
+            content = encoding.encode(content, 0, content.length, Deflater.BEST_COMPRESSION);
+        }
+        boolean variable = compressible || encoding != ContentEncoding.IDENTITY
+                || hasSidecar(file);
+        Entry entry = new Entry(keyOf(path, encoding), file, lastModified, length, source,
+                sourceModified, sourceLength, content, contentType, encoding, entityTag, variable);
+        if (entry.weight <= capacity) {
+            put(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the precompressed sidecar file of a file for the given coding,
+     * e.g. app.js.gz for app.js and gzip, if it exists and is not older than
+     * the file.
+     *
+     * @param file     the {@link File}.
+     * @param encoding the {@link ContentEncoding}.
+     * @return the sidecar {@link File}, or null if there is none.
+     */
+    static File findSidecar(File file, ContentEncoding encoding) {
+        if (encoding.getExtension() == null) {
+            return null;
+        }
+        File sidecar = new File(file.getPath() + encoding.getExtension());
+        if (!sidecar.isFile() || sidecar.lastModified() < file.lastModified()) {
+            return null;
+        }
+        return sidecar;
+    }
+
+    /**
+     * Checks if a file has a precompressed sidecar file for any coding,
+     * so its response depends on the Accept-Encoding of the request.
+     *
+     * @param file the {@link File}.
+     * @return true if there is a sidecar file, false otherwise.
+     */
+    static boolean hasSidecar(File file) {
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            if (findSidecar(file, encoding) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a whole file, if it is not too large.
+     *
+     * @param file    the {@link File}.
+     * @param maxSize the maximum size of the file.
+     * @return the contents of the file, or null if it is too large.
+     * @throws IOException any exception that might occur.
+     */
+    private static byte[] read(File file, long maxSize) throws IOException {
+        if (file.length() > maxSize) {
+            return null;
+        }
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            long size = channel.size();
+            if (size > maxSize) {
+                return null;
+            }
+            ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // keep reading
+            }
+            return Arrays.copyOf(content.array(), content.position());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the key of a variant of a path. The name of the coding
+     * comes first, as it cannot contain a colon, unlike the path.
+     *
+     * @param path     the requested path.
+     * @param encoding the {@link ContentEncoding} of the variant.
+     * @return the key.
+     */
+    private static String keyOf(String path, ContentEncoding encoding) {
+        return encoding.getName() + ':' + path;
+    }
+
+    /**
+     * Returns the number of cached files.
+     *
+     * @return the number of cached files.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Records a lookup in the read buffer, draining the buffer if the lock is
+     * free. If the buffer is full, waits for the lock to drain it instead.
+     *
+     * @param read the {@link Entry} found, or the key of a miss.
+     */
+    private void recordRead(Object read) {
+        if (offerRead(read)) {
+            if (lock.tryLock()) {
+                try {
+                    drainReads();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            drainReads();
+            onRead(read);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a lookup to the read buffer, if it is not full.
+     *
+     * @param read the {@link Entry} found, or the key of a miss.
+     * @return true if the lookup was added, false if the buffer is full.
+     */
+    private boolean offerRead(Object read) {
+        while (true) {
+            long tail = readTail.get();
+            if (tail - readHead >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (readTail.compareAndSet(tail, tail + 1)) {
+                reads.lazySet((int) (tail & READ_BUFFER_MASK), read);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records the lookups of the read buffer, in the order they were added.
+     * A slot that has been taken but not written yet stops the draining, and
+     * is drained the next time. Must be called holding the lock.
+     */
+    private void drainReads() {
+        long head = readHead;
+        long tail = readTail.get();
+        while (head < tail) {
+            int index = (int) (head & READ_BUFFER_MASK);
+            Object read = reads.get(index);
+            if (read == null) {
+                break;
+            }
+            reads.lazySet(index, null);
+            onRead(read);
+            head++;
+        }
+        readHead = head;
+    }
+
+    /**
+     * Records a lookup: the frequency of its key, and the hit of the entry
+     * found, if it is still cached. Must be called holding the lock.
+     *
+     * @param read the {@link Entry} found, or the key of a miss.
+     */
+    private void onRead(Object read) {
+        if (read instanceof Entry) {
+            Entry entry = (Entry) read;
+            sketch.increment(entry.key.hashCode());
+            if (entry.segment != null) {
+                onHit(entry);
+            }
+        } else {
+            sketch.increment(read.hashCode());
+        }
+    }
+
+    /**
+     * Adds an entry to the window. An entry of the same path that is still
+     * cached is replaced in place, keeping its segment and its position in
+     * it, so that reloading a file does not send it back through the window.
+     *
+     * @param entry the {@link Entry}.
+     */
+    private void put(Entry entry) {
+        lock.lock();
+        try {
+            drainReads();
+            Entry existing = entries.put(entry.key, entry);
+            if (existing != null && existing.segment != null) {
+                replace(existing, entry);
+                return;
+            }
+            entry.segment = window;
+            window.put(entry.key, entry);
+            windowSize += entry.weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces a cached entry with a newer one of the same key, in the same
+     * place, and evicts entries of the main space while the cache is too large,
+     * if the newer one weighs more. Must be called holding the lock.
+     *
+     * @param existing the cached {@link Entry}.
+     * @param entry    the {@link Entry} replacing it.
+     */
+    private void replace(Entry existing, Entry entry) {
+        LinkedHashMap<String, Entry> segment = existing.segment;
+        existing.segment = null;
+        entry.segment = segment;
+        // replacing the value of a key keeps its position in the segment
+        segment.put(entry.key, entry);
+        long delta = entry.weight - existing.weight;
+        if (segment == window) {
+            windowSize += delta;
+            evict();
+            return;
+        }
+        if (segment == probation) {
+            probationSize += delta;
+        } else {
+            protectedSize += delta;
+            demoteProtected();
+        }
+        while (windowSize + probationSize + protectedSize > capacity) {
+            Entry victim = nextVictim();
+            if (victim == null) {
+                break;
+            }
+            entries.remove(victim.key, victim);
+            unlink(victim);
+        }
+    }
+
+    /**
+     * Removes an entry, if it is still cached.
+     *
+     * @param entry the {@link Entry}.
+     */
+    private void remove(Entry entry) {
+        lock.lock();
+        try {
+            if (entries.remove(entry.key, entry)) {
+                unlink(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a hit of an entry: it becomes the most recently used one of its
+     * segment, or it is promoted to the protected segment if it was on probation,
+     * demoting the least recently used protected entries if there is no room.
+     *
+     * @param entry the {@link Entry}.
+     */
+    private void onHit(Entry entry) {
+        if (entry.segment == probation) {
+            probation.remove(entry.key);
+            probationSize -= entry.weight;
+            entry.segment = protectedSegment;
+            protectedSegment.put(entry.key, entry);
+            protectedSize += entry.weight;
+            demoteProtected();
+        } else {
+            // move it to the end
+            entry.segment.remove(entry.key);
+            entry.segment.put(entry.key, entry);
+        }
+    }
+
+    /**
+     * Demotes the least recently used protected entries to probation,
+     * while the protected segment is too large.
+     */
+    private void demoteProtected() {
+        while (protectedSize > protectedCapacity) {
+            Entry demoted = first(protectedSegment);
+            protectedSegment.remove(demoted.key);
+            protectedSize -= demoted.weight;
+            demoted.segment = probation;
+            probation.put(demoted.key, demoted);
+            probationSize += demoted.weight;
+        }
+    }
+
+    /**
+     * Checks if a variant would be admitted to the main space, the way the
+     * ones leaving the window are: if there is room for it, or if it has been
+     * requested more often than the entry that would be evicted first.
+     *
+     * @param key    the key of the variant.
+     * @param weight the most the variant would weigh.
+     * @return true if it would be admitted, false otherwise.
+     */
+    private boolean wouldAdmit(String key, long weight) {
+        lock.lock();
+        try {
+            drainReads();
+            if (windowSize + probationSize + protectedSize + weight <= capacity) {
+                return true;
+            }
+            Entry victim = nextVictim();
+            return victim != null
+                    && sketch.frequency(key.hashCode()) > sketch.frequency(victim.key.hashCode());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the entry of the main space that is evicted first: the least
+     * recently used one on probation, or else the least recently used protected one.
+     *
+     * @return the {@link Entry}, or null if the main space is empty.
+     */
+    private Entry nextVictim() {
+        return probation.isEmpty() ? first(protectedSegment) : first(probation);
+    }
+
+    /**
+     * Moves the least recently used entries out of the window, while it is too
+     * large, and lets each of them into the main space only if it is requested
+     * more often than every entry that has to be evicted to make room for it.
+     */
+    private void evict() {
+        while (windowSize > windowCapacity) {
+            Entry candidate = first(window);
+            window.remove(candidate.key);
+            windowSize -= candidate.weight;
+            int frequency = sketch.frequency(candidate.key.hashCode());
+            boolean admitted = true;
+            while (windowSize + probationSize + protectedSize + candidate.weight > capacity) {
+                Entry victim = nextVictim();
+                if (victim == null || frequency <= sketch.frequency(victim.key.hashCode())) {
+                    admitted = false;
+                    break;
+                }
+                entries.remove(victim.key, victim);
+                unlink(victim);
+            }
+            if (admitted) {
+                candidate.segment = probation;
+                probation.put(candidate.key, candidate);
+                probationSize += candidate.weight;
+            } else {
+                entries.remove(candidate.key, candidate);
+                candidate.segment = null;
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from its segment.
+     *
+     * @param entry the {@link Entry}.
+     */
+    private void unlink(Entry entry) {
+        if (entry.segment == window) {
+            windowSize -= entry.weight;
+        } else if (entry.segment == probation) {
+            probationSize -= entry.weight;
+        } else if (entry.segment == protectedSegment) {
+            protectedSize -= entry.weight;
+        }
+        if (entry.segment != null) {
+            entry.segment.remove(entry.key);
+            entry.segment = null;
+        }
+    }
+
+    /**
+     * Returns the least recently used entry of a segment.
+     *
+     * @param segment the segment.
+     * @return the first {@link Entry}, or null if the segment is empty.
+     */
+    private static Entry first(LinkedHashMap<String, Entry> segment) {
+        Iterator<Entry> iterator = segment.values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * A cached variant of a file, with the headers describing it already encoded.
+     */
+    public static final class Entry {
+        private final String key;
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private final File source;
+        private final long sourceModified;
+        private final long sourceLength;
+        private final byte[] content;
+        private final String entityTag;
+        private final boolean variable;
+        private final Map<HttpResponseHeader, String> headers;
+        private final byte[] encodedHeaders;
+        private final int weight;
+        private volatile long checkedAt;
+        // guarded by the lock of the cache
+        private LinkedHashMap<String, Entry> segment;
+
+        /**
+         * Creates a new Entry.
+         *
+         * @param key            the key of the variant.
+         * @param file           the {@link File}.
+         * @param lastModified   the last modified time of the file.
+         * @param length         the length of the file.
+         * @param source         the file that was read, the file itself or its sidecar.
+         * @param sourceModified the last modified time of the source.
+         * @param sourceLength   the length of the source.
+         * @param content        the (encoded) contents.
+         * @param contentType    the type of the file.
+         * @param encoding       the {@link ContentEncoding} of the contents.
+         * @param entityTag      the entity tag of the variant.
+         * @param variable       whether other variants of the file may be sent.
+         */
+        private Entry(String key, File file, long lastModified, long length,
+                      File source, long sourceModified, long sourceLength, byte[] content,
+                      String contentType, ContentEncoding encoding, String entityTag,
+                      boolean variable) {
+            this.key = key;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.source = source;
+            this.sourceModified = sourceModified;
+            this.sourceLength = sourceLength;
+            this.content = content;
+            this.entityTag = entityTag;
+            this.variable = variable;
+            headers = new EnumMap<HttpResponseHeader, String>(HttpResponseHeader.class);
+            headers.put(HttpResponseHeader.ContentType, contentType);
+            headers.put(HttpResponseHeader.ContentLength, String.valueOf(content.length));
+            if (encoding != ContentEncoding.IDENTITY) {
+                headers.put(HttpResponseHeader.ContentEncoding, encoding.getName());
+            }
+            headers.put(HttpResponseHeader.AcceptRanges, "bytes");
+            headers.put(HttpResponseHeader.Etag, entityTag);
+            headers.put(HttpResponseHeader.LastModified, HttpDate.INSTANCE.format(lastModified));
+            if (variable) {
+                headers.put(HttpResponseHeader.Vary, "Accept-Encoding");
+            }
+            encodedHeaders = HttpResponse.encodeHeaders(headers);
+            weight = content.length + encodedHeaders.length + 2 * key.length() + ENTRY_OVERHEAD;
+            checkedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the contents of the file, which must not be modified.
+         *
+         * @return the contents of the file.
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * Returns the entity tag of the variant.
+         *
+         * @return the quoted entity tag.
+         */
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        /**
+         * Returns the last modified time of the file.
+         *
+         * @return the last modified time in milliseconds since the epoch.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Checks whether the response depends on the Accept-Encoding of the
+         * request, i.e. the file is compressible or has a sidecar file.
+         *
+         * @return true if other variants of the file may be sent, false otherwise.
+         */
+        public boolean isVariable() {
+            return variable;
+        }
+
+        /**
+         * Returns the Content-Type, Content-Length, Content-Encoding,
+         * Accept-Ranges, ETag, Last-Modified and Vary headers of the variant.
+         *
+         * @return the headers, which must not be modified.
+         */
+        public Map<HttpResponseHeader, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the headers of the file, encoded as header lines.
+         *
+         * @return the encoded headers, which must not be modified.
+         */
+        byte[] getEncodedHeaders() {
+            return encodedHeaders;
+        }
+
+        /**
+         * Checks if the file, or its sidecar, has changed since it was read.
+         *
+         * @param now the current time.
+         * @return true if the file has not changed, false otherwise.
+         */
+        private boolean isUpToDate(long now) {
+            if (file.lastModified() != lastModified || file.length() != length) {
+                return false;
+            }
+            if (source != file && (source.lastModified() != sourceModified
+                    || source.length() != sourceLength)) {
+                return false;
+            }
+            checkedAt = now;
+            return true;
+        }
+    }
+}
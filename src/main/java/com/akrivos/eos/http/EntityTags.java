@@ -0,0 +1,248 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.config.Settings;
+import com.akrivos.eos.http.constants.ContentEncoding;
+import com.akrivos.eos.utils.BufferPool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A singleton enum generating the strong entity tags (RFC 7232, section 2.3)
+ * of files. By default, a tag is made of the file's inode, length and last
+ * modified time, which are known without reading the file. With server.etag
+ * set to hash, it is made of a hash of the contents instead, so that it stays
+ * the same when an unchanged file is copied again; the hashes are kept, as long
+ * as the length and last modified time of their file stay the same. The tags
+ * of encoded variants end with the name of their coding.
+ */
+public enum EntityTags {
+    INSTANCE;
+
+    private static final int MAX_HASHED_FILES = 4096;
+    private static final int HASH_LENGTH = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final boolean hashed;
+    private final ConcurrentHashMap<String, HashedFile> hashes;
+
+    /**
+     * Initialises the singleton instance.
+     */
+    private EntityTags() {
+        hashed = Settings.INSTANCE.getValueFor(Settings.SERVER_ETAG).equals("hash");
+        hashes = new ConcurrentHashMap<String, HashedFile>();
+    }
+
+    /**
+     * Returns the entity tag of a file, reading it if tags are hashes
+     * and its hash is not known.
+     *
+     * @param file         the {@link File}.
+     * @param lastModified the last modified time of the file.
+     * @param length       the length of the file.
+     * @param encoding     the {@link ContentEncoding} of the variant.
+     * @return the quoted entity tag.
+     * @throws IOException any exception that might occur.
+     */
+    public String getEntityTag(File file, long lastModified, long length,
+                               ContentEncoding encoding) throws IOException {
+        if (!hashed) {
+            return statTag(file, lastModified, length, encoding);
+        }
+        HashedFile hashedFile = hashes.get(file.getPath());
+        if (hashedFile == null || hashedFile.lastModified != lastModified
+                || hashedFile.length != length) {
+            hashedFile = new HashedFile(lastModified, length, hash(file));
+            remember(file, hashedFile);
+        }
+        return quote(hashedFile.hash, encoding);
+    }
+
+    /**
+     * Returns the entity tag of a file whose contents have already been read.
+     *
+     * @param file         the {@link File}.
+     * @param lastModified the last modified time of the file.
+     * @param content      the contents of the file.
+     * @param encoding     the {@link ContentEncoding} of the variant.
+     * @return the quoted entity tag.
+     * @throws IOException any exception that might occur.
+     */
+    public String getEntityTag(File file, long lastModified, byte[] content,
+                               ContentEncoding encoding) throws IOException {
+        if (!hashed) {
+            return statTag(file, lastModified, content.length, encoding);
+        }
+        MessageDigest digest = newDigest();
+        digest.update(content);
+        HashedFile hashedFile = new HashedFile(lastModified, content.length,
+                toHex(digest.digest()));
+        remember(file, hashedFile);
+        return quote(hashedFile.hash, encoding);
+    }
+
+    /**
+     * Returns the entity tag made of the inode, length and last modified time.
+     *
+     * @param file         the {@link File}.
+     * @param lastModified the last modified time of the file.
+     * @param length       the length of the file.
+     * @param encoding     the {@link ContentEncoding} of the variant.
+     * @return the quoted entity tag.
+     * @throws IOException any exception that might occur.
+     */
+    private String statTag(File file, long lastModified, long length,
+                           ContentEncoding encoding) throws IOException {
+        // the file key holds the device and inode, where the file system has them,
+        // e.g. (dev=801,ino=1234); all of it is kept, as its hash code may collide
+        Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        StringBuilder tag = new StringBuilder(64);
+        if (fileKey != null) {
+            appendFileKey(fileKey.toString(), tag);
+        }
+        tag.append(Long.toHexString(length)).append('-').append(Long.toHexString(lastModified));
+        return quote(tag.toString(), encoding);
+    }
+
+    /**
+     * Appends the letters and digits of a file key to a tag, with a dash in
+     * place of each run of other characters, which may not be allowed in a tag.
+     *
+     * @param fileKey the file key as a String.
+     * @param tag     the tag.
+     */
+    private static void appendFileKey(String fileKey, StringBuilder tag) {
+        boolean separated = true;
+        for (int i = 0; i < fileKey.length(); i++) {
+            char c = fileKey.charAt(i);
+            if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                tag.append(c);
+                separated = false;
+            } else if (!separated) {
+                tag.append('-');
+                separated = true;
+            }
+        }
+        if (!separated) {
+            tag.append('-');
+        }
+    }
+
+    /**
+     * Keeps the hash of a file. When there are too many, the hash of another
+     * file is forgotten to make room, so that the hashes of files that are not
+     * requested any more go away, without losing all the others at once.
+     *
+     * @param file       the {@link File}.
+     * @param hashedFile the {@link HashedFile}.
+     */
+    private void remember(File file, HashedFile hashedFile) {
+        String path = file.getPath();
+        if (hashes.size() >= MAX_HASHED_FILES && !hashes.containsKey(path)) {
+            Iterator<String> paths = hashes.keySet().iterator();
+            if (paths.hasNext()) {
+                hashes.remove(paths.next());
+            }
+        }
+        hashes.put(path, hashedFile);
+    }
+
+    /**
+     * Hashes the contents of a file, through a pooled buffer.
+     *
+     * @param file the {@link File}.
+     * @return the hash in hex.
+     * @throws IOException any exception that might occur.
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = BufferPool.INSTANCE.acquire();
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            int bytesRead;
+            while ((bytesRead = channel.read(ByteBuffer.wrap(buffer))) >= 0) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        } finally {
+            channel.close();
+            BufferPool.INSTANCE.release(buffer);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Creates a SHA-256 {@link MessageDigest}, which every JVM has.
+     *
+     * @return the {@link MessageDigest}.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the first bytes of a hash in hex, which are enough
+     * to tell the versions of a file apart.
+     *
+     * @param hash the hash.
+     * @return the hex digits.
+     */
+    private static String toHex(byte[] hash) {
+        char[] hex = new char[HASH_LENGTH * 2];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Quotes a tag, adding the name of the coding of an encoded variant.
+     *
+     * @param tag      the tag.
+     * @param encoding the {@link ContentEncoding} of the variant.
+     * @return the quoted entity tag.
+     */
+    private static String quote(String tag, ContentEncoding encoding) {
+        if (encoding == ContentEncoding.IDENTITY) {
+            return '"' + tag + '"';
+        }
+        return '"' + tag + '-' + encoding.getName() + '"';
+    }
+
+    /**
+     * The hash of a file, along with the length and last
+     * modified time the file had when it was hashed.
+     */
+    private static final class HashedFile {
+        private final long lastModified;
+        private final long length;
+        private final String hash;
+
+        /**
+         * Creates a new HashedFile.
+         *
+         * @param lastModified the last modified time of the file.
+         * @param length       the length of the file.
+         * @param hash         the hash of the contents in hex.
+         */
+        private HashedFile(long lastModified, long length, String hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
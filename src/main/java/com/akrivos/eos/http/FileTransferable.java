@@ -0,0 +1,34 @@
+package com.akrivos.eos.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link java.io.OutputStream} of a connection that can send (part of) a
+ * file itself, e.g. with {@link FileChannel#transferTo}, which lets the kernel
+ * copy the file straight to the socket (sendfile) instead of copying it through
+ * the JVM, or send a mapped file straight from its pages. Anything written to
+ * the stream before must have been flushed.
+ */
+public interface FileTransferable {
+    /**
+     * Sends part of a file to the connection.
+     *
+     * @param file     the {@link FileChannel} of the file.
+     * @param position the position in the file to start from.
+     * @param count    the number of bytes to send.
+     * @return the number of bytes sent, less than count only if the file ended.
+     * @throws IOException any exception that might occur.
+     */
+    long transferFrom(FileChannel file, long position, long count) throws IOException;
+
+    /**
+     * Sends the remaining bytes of a buffer, e.g. a file mapped in memory,
+     * without copying them into a byte array first.
+     *
+     * @param buffer the {@link ByteBuffer}.
+     * @throws IOException any exception that might occur.
+     */
+    void transferFrom(ByteBuffer buffer) throws IOException;
+}
@@ -3,6 +3,8 @@ package com.akrivos.eos.http;
 import com.akrivos.eos.Handler;
 import com.akrivos.eos.Server;
 import com.akrivos.eos.config.Settings;
+import com.akrivos.eos.http.constants.ConnectionPhase;
+import com.akrivos.eos.http.constants.ContentEncoding;
 import com.akrivos.eos.http.constants.HttpMethod;
 import com.akrivos.eos.http.constants.HttpResponseHeader;
 import com.akrivos.eos.http.constants.HttpStatusCode;
@@ -10,15 +12,33 @@ import com.akrivos.eos.utils.MimeTypes;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
 
 /**
  * An implementation of a {@link Handler} for file managing on an HTTP Server.
  */
 public class FilesHandler implements Handler {
+    private static final int OUTPUT_BUFFER_SIZE = 16 * 1024;
+    private static final int LISTING_FORK_THRESHOLD = 256;
+    private static final DateTimeFormatter LISTING_DATE_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MMM-dd HH:mm:ss zzz", Locale.ENGLISH)
+            .withZone(ZoneId.systemDefault());
+
     private final String root;
+    private final ContentCache contentCache;
     private Server server;
 
     /**
@@ -27,7 +47,19 @@ public class FilesHandler implements Handler {
      * @param root the door directory.
      */
     public FilesHandler(String root) {
+        this(root, new ContentCache(
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_CACHE_SIZE)));
+    }
+
+    /**
+     * Creates a new FileHandler with the given {@link ContentCache}.
+     *
+     * @param root         the door directory.
+     * @param contentCache the {@link ContentCache} of small files.
+     */
+    FilesHandler(String root, ContentCache contentCache) {
         this.root = root;
+        this.contentCache = contentCache;
     }
 
     /**
@@ -35,33 +67,121 @@ public class FilesHandler implements Handler {
      * and check whether the request is about a file or a directory.
      * If the request is not valid, the appropriate {@link HttpException}
      * is thrown and an error page is generated and sent based on it.
+     * Files found in the content cache are sent without touching the disk.
+     * Requests are served in a loop, as long as the connection is persistent
+     * and there is data to read, up to the maximum requests per connection.
+     * Once the server is stopping, the response in progress is the last one.
+     * Responses to pipelined requests, which have already been read, are
+     * sent together, up to the pipeline depth, in as few writes as possible.
+     * The progress of the connection is kept in its {@link ConnectionInfo}.
      *
      * @param socket the client socket.
-     * @return true if the request was handled successfully, false otherwise.
+     * @return true if the connection can be kept open for
+     *         further requests, false otherwise.
      * @throws Exception any exception that might occur.
      */
     @Override
     public boolean handle(Socket socket) throws Exception {
-        HttpRequest request = null;
-        try {
-            request = new HttpRequest(socket.getInputStream());
-            if (request.getMethod() == HttpMethod.OPTIONS) {
-                sendOptions(request, socket.getOutputStream());
-            } else if (isRequestUriFile(request.getUri())) {
-                sendFile(request.getUri(), request, socket.getOutputStream());
-            } else {
-                String indexFile = getIndexFileFrom(request.getUri());
-                if (indexFile != null && !indexFile.isEmpty()) {
-                    sendFile(request.getUri() + indexFile,
-                            request, socket.getOutputStream());
-                } else {
-                    sendDirectoryList(request, socket.getOutputStream());
+        int keepAliveTimeout = Settings.INSTANCE.getValueAsIntegerFor(
+                Settings.SERVER_KEEPALIVE_TIMEOUT);
+        int keepAliveMax = Settings.INSTANCE.getValueAsIntegerFor(
+                Settings.SERVER_KEEPALIVE_MAX);
+        int pipelineDepth = Settings.INSTANCE.getValueAsIntegerFor(
+                Settings.SERVER_PIPELINE_DEPTH);
+        ConnectionInfo info = ConnectionRegistry.INSTANCE.get(socket);
+        if (info == null) {
+            // not accepted by one of our connectors, so track it locally
+            info = new ConnectionInfo(null, socket, socket);
+        }
+        OutputStream socketOut = info.countOutput(socket.getOutputStream());
+        FileTransferable transport = socketOut instanceof FileTransferable
+                ? (FileTransferable) socketOut
+                : null;
+        final OutputStream out = new BufferedOutputStream(socketOut, OUTPUT_BUFFER_SIZE);
+        // the responses held back for pipelined requests are flushed before
+        // waiting for more data, e.g. the rest of a request that is still arriving
+        InputStream in = new BufferedInputStream(new FilterInputStream(
+                info.countInput(socket.getInputStream())) {
+            @Override
+            public int read() throws IOException {
+                if (super.available() == 0) {
+                    out.flush();
+                }
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (super.available() == 0) {
+                    out.flush();
+                }
+                return super.read(b, off, len);
+            }
+        });
+        HttpRequestParser parser = new HttpRequestParser();
+        boolean keepAlive = true;
+        int pipelined = 0;
+        for (int served = 0; keepAlive && hasRequest(in); served++) {
+            HttpRequest request = null;
+            try {
+                HttpResponse response = null;
+                ContentCache.Entry cached;
+                try {
+                    info.setPhase(ConnectionPhase.READING_HEADERS);
+                    request = new HttpRequest(in, parser);
+                    // the body is read under its own timeout, until the response is committed
+                    info.setPhase(ConnectionPhase.READING_BODY);
+                    response = new HttpResponse(request, out, transport);
+                    response.setConnectionInfo(info);
+                    if (request.isKeepAlive() && served + 1 < keepAliveMax
+                            && (server == null || server.isRunning())) {
+                        response.setKeepAlive(keepAliveTimeout, keepAliveMax - served - 1);
+                    }
+                    if (request.getMethod() == HttpMethod.OPTIONS) {
+                        sendOptions(response);
+                    } else if ((cached = getCachedFile(request)) != null) {
+                        sendCachedFile(request, cached, response);
+                    } else if (isRequestUriFile(request.getUri())) {
+                        sendFile(request, request.getUri(), response);
+                    } else {
+                        String indexFile = getIndexFileFrom(request.getUri());
+                        if (indexFile != null && !indexFile.isEmpty()) {
+                            sendFile(request, request.getUri() + indexFile, response);
+                        } else {
+                            sendDirectoryList(request, response);
+                        }
+                    }
+                } catch (HttpException e) {
+                    if (response == null) {
+                        // the request could not be parsed, so the connection is
+                        // closed, as there is no way to tell where the next one starts
+                        info.setPhase(ConnectionPhase.WRITING);
+                        response = new HttpResponse(request, out);
+                    }
+                    sendError(request, response, e);
+                }
+                response.commit();
+                keepAlive = response.isKeepAlive();
+                if (keepAlive) {
+                    info.setPhase(ConnectionPhase.READING_BODY);
+                    keepAlive = request.skipBody();
+                }
+            } finally {
+                // delete the temporary files of the parts even if writing the response fails
+                if (request != null) {
+                    request.deleteParts();
                 }
             }
-        } catch (HttpException e) {
-            sendError(request, socket.getOutputStream(), e);
+            // only flush when there are no more pipelined requests to answer,
+            // or else when reading the next one has to wait for more data
+            if (!keepAlive || ++pipelined >= pipelineDepth || in.available() == 0) {
+                info.setPhase(ConnectionPhase.WRITING);
+                out.flush();
+                pipelined = 0;
+            }
+            info.requestServed();
         }
-        return true;
+        return keepAlive;
     }
 
     /**
@@ -80,16 +200,34 @@ public class FilesHandler implements Handler {
         this.server = server;
     }
 
+    /**
+     * Waits until the next request of the connection starts arriving.
+     *
+     * @param in the connection's buffered {@link InputStream}.
+     * @return true if there is a request to read, false if the connection
+     *         was closed or stayed idle for longer than the timeout.
+     * @throws IOException any exception that might occur.
+     */
+    private boolean hasRequest(InputStream in) throws IOException {
+        in.mark(1);
+        try {
+            if (in.read() < 0) {
+                return false;
+            }
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+        in.reset();
+        return true;
+    }
+
     /**
      * Sends the server OPTIONS to the client.
      *
-     * @param request the {@link HttpRequest}.
-     * @param out     the {@link OutputStream}.
+     * @param response the {@link HttpResponse}.
      * @throws Exception any exception that might occur.
      */
-    private void sendOptions(HttpRequest request, OutputStream out)
-            throws Exception {
-        HttpResponse response = new HttpResponse(request, out);
+    private void sendOptions(HttpResponse response) throws Exception {
         response.writeStatusLine(HttpStatusCode.OK);
         response.writeHeader(HttpResponseHeader.Allow, "GET, HEAD, POST");
         response.writeHeader(HttpResponseHeader.ContentLength, "0");
@@ -151,54 +289,334 @@ public class FilesHandler implements Handler {
     }
 
     /**
-     * Takes a file name, an {@link HttpRequest} and an {@link OutputStream}.
-     * Reads the contents of the requested file from the uri and
-     * sends them directly to the {@link OutputStream} given.
+     * Returns the compressed content coding the client prefers among the ones
+     * the server can send, according to the Accept-Encoding of the request,
+     * or the identity coding if it accepts none of them.
+     *
+     * @param request the {@link HttpRequest}.
+     * @return the {@link ContentEncoding}.
+     */
+    private ContentEncoding getAcceptedEncoding(HttpRequest request) {
+        ContentEncoding accepted = ContentEncoding.IDENTITY;
+        float acceptedQuality = 0f;
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            if (encoding == ContentEncoding.IDENTITY) {
+                continue;
+            }
+            float quality = request.getEncodingQuality(encoding.getName());
+            if (quality > acceptedQuality) {
+                accepted = encoding;
+                acceptedQuality = quality;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Returns the cached variant of the requested file that the client
+     * accepts, unless a compressed variant could be sent instead of the
+     * cached identity one.
+     *
+     * @param request the {@link HttpRequest}.
+     * @return the {@link ContentCache.Entry}, or null if it is not cached.
+     */
+    private ContentCache.Entry getCachedFile(HttpRequest request) {
+        ContentEncoding encoding = getAcceptedEncoding(request);
+        if (encoding != ContentEncoding.IDENTITY) {
+            ContentCache.Entry cached = contentCache.get(request.getUri(), encoding);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ContentCache.Entry cached = contentCache.get(request.getUri(), ContentEncoding.IDENTITY);
+        if (cached != null && cached.isVariable() && encoding != ContentEncoding.IDENTITY) {
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * Takes a file name and an {@link HttpResponse}.
+     * Sends the contents of the requested file from the uri directly
+     * as the body of the {@link HttpResponse}, with zero-copy if the
+     * connection supports it. Small files are read into the content
+     * cache, under the requested path, which may be the directory of
+     * an index file, and larger ones that are requested often are mapped.
+     * If the client accepts it, a precompressed sidecar file is sent
+     * instead of the file, or a small file with a compressible type is
+     * compressed once and cached. Conditional requests are answered
+     * according to the entity tag and last modified time of the file,
+     * and range requests with the requested ranges of it.
      *
-     * @param fileName the file name.
      * @param request  the {@link HttpRequest}.
-     * @param out      the {@link OutputStream} for the {@link HttpResponse}.
+     * @param fileName the file name.
+     * @param response the {@link HttpResponse}.
      * @throws Exception any exception that might occur.
      */
-    private void sendFile(String fileName, HttpRequest request, OutputStream out)
+    private void sendFile(HttpRequest request, String fileName, HttpResponse response)
             throws Exception {
         File file = new File(root, fileName).getCanonicalFile();
-        HttpResponse response = new HttpResponse(request, out);
-        response.writeStatusLine(HttpStatusCode.OK);
-        response.writeHeader(HttpResponseHeader.ContentType,
-                MimeTypes.INSTANCE.getMimeTypeFor(file.getCanonicalPath()));
-        response.writeHeader(HttpResponseHeader.ContentLength,
-                String.valueOf(file.length()));
-        response.writeLastModified(new Date(file.lastModified()));
-        response.writeFinalHeaders();
-        InputStream in = null;
+        ContentEncoding encoding = getAcceptedEncoding(request);
+        ContentCache.Entry cached = null;
+        if (encoding != ContentEncoding.IDENTITY) {
+            cached = contentCache.load(request.getUri(), file, encoding);
+            if (cached == null) {
+                // no variant was admitted, so the identity one is sent, from the
+                // cache if it is there, rather than reading it again
+                cached = contentCache.peek(request.getUri(), ContentEncoding.IDENTITY);
+            }
+        }
+        if (cached == null) {
+            cached = contentCache.load(request.getUri(), file, ContentEncoding.IDENTITY);
+        }
+        if (cached != null) {
+            sendCachedFile(request, cached, response);
+            return;
+        }
+        String contentType = MimeTypes.INSTANCE.getMimeTypeFor(file.getPath());
+        File source = ContentCache.findSidecar(file, encoding);
+        boolean variable = source != null || MimeTypes.INSTANCE.isCompressible(contentType)
+                || ContentCache.hasSidecar(file);
+        if (source == null) {
+            source = file;
+            encoding = ContentEncoding.IDENTITY;
+        }
+        MappedFileCache.MappedFile mapped = response.hasBody()
+                ? MappedFileCache.INSTANCE.get(source)
+                : null;
+        // open the file first, so that its length is the one that is sent
+        FileChannel channel = response.hasBody() && mapped == null
+                ? new FileInputStream(source).getChannel()
+                : null;
         try {
-            // buffered reading the file and storing its bytes contents
-            in = new BufferedInputStream(new FileInputStream(file));
-            byte[] buffer = new byte[4 * 1024];
-            int bytesRead;
-            while ((bytesRead = in.read(buffer)) > 0) {
-                if (bytesRead > 0) {
-                    response.writeBody(buffer, 0, bytesRead);
-                }
+            long length;
+            long lastModified;
+            if (mapped != null) {
+                length = mapped.getLength();
+                lastModified = source == file ? mapped.getLastModified() : file.lastModified();
+            } else {
+                length = channel != null ? channel.size() : source.length();
+                lastModified = file.lastModified();
+            }
+            // the tag of a sidecar file is its own, as it may change on its own
+            String entityTag = EntityTags.INSTANCE.getEntityTag(source,
+                    source == file ? lastModified : source.lastModified(), length, encoding);
+            if (!checkPreconditions(request, response, entityTag, lastModified, variable)) {
+                return;
+            }
+            Map<HttpResponseHeader, String> headers =
+                    new EnumMap<HttpResponseHeader, String>(HttpResponseHeader.class);
+            headers.put(HttpResponseHeader.ContentType, contentType);
+            if (encoding != ContentEncoding.IDENTITY) {
+                headers.put(HttpResponseHeader.ContentEncoding, encoding.getName());
+            }
+            headers.put(HttpResponseHeader.AcceptRanges, "bytes");
+            headers.put(HttpResponseHeader.Etag, entityTag);
+            headers.put(HttpResponseHeader.LastModified, HttpDate.INSTANCE.format(lastModified));
+            if (variable) {
+                headers.put(HttpResponseHeader.Vary, "Accept-Encoding");
+            }
+            ByteBuffer contents = mapped != null ? mapped.getContents() : null;
+            List<ByteRange> ranges = request.getRanges(entityTag, lastModified, length);
+            if (ranges != null) {
+                sendRanges(response, ranges, headers, length, source, contents, channel);
+                return;
+            }
+            response.writeStatusLine(HttpStatusCode.OK);
+            for (Map.Entry<HttpResponseHeader, String> header : headers.entrySet()) {
+                response.writeHeader(header.getKey(), header.getValue());
+            }
+            response.writeHeader(HttpResponseHeader.ContentLength,
+                    String.valueOf(length));
+            response.writeFinalHeaders();
+            if (contents != null || channel != null) {
+                writeRange(response, source, contents, channel, 0, length);
             }
         } finally {
-            if (in != null) {
-                in.close();
+            if (channel != null) {
+                channel.close();
             }
         }
     }
 
     /**
-     * Takes an {@link HttpRequest} and an {@link OutputStream}.
+     * Evaluates the preconditions of a request for a file and, if the
+     * file is not to be sent, sends a {@link HttpStatusCode#NOT_MODIFIED}
+     * response with the headers a cache needs to keep using its copy.
+     *
+     * @param request      the {@link HttpRequest}.
+     * @param response     the {@link HttpResponse}.
+     * @param entityTag    the entity tag of the file.
+     * @param lastModified the last modified time of the file.
+     * @param variable     whether the response depends on the Accept-Encoding.
+     * @return true if the file should be sent, false if it is not modified.
+     * @throws HttpException {@link HttpStatusCode#PRECON_FAILED} if a precondition failed.
+     * @throws Exception     any other exception that might occur.
+     */
+    private boolean checkPreconditions(HttpRequest request, HttpResponse response,
+                                       String entityTag, long lastModified,
+                                       boolean variable) throws Exception {
+        HttpStatusCode status = request.checkPreconditions(entityTag, lastModified);
+        if (status == null) {
+            return true;
+        }
+        if (status == HttpStatusCode.PRECON_FAILED) {
+            throw new HttpException(status);
+        }
+        response.writeStatusLine(status);
+        response.writeHeader(HttpResponseHeader.Etag, entityTag);
+        response.writeLastModified(lastModified);
+        if (variable) {
+            response.writeHeader(HttpResponseHeader.Vary, "Accept-Encoding");
+        }
+        response.writeFinalHeaders();
+        return false;
+    }
+
+    /**
+     * Sends a file from the content cache, with the headers encoded
+     * when it was read, unless it is not modified or only some ranges
+     * of it are requested.
+     *
+     * @param request  the {@link HttpRequest}.
+     * @param cached   the {@link ContentCache.Entry}.
+     * @param response the {@link HttpResponse}.
+     * @throws Exception any exception that might occur.
+     */
+    private void sendCachedFile(HttpRequest request, ContentCache.Entry cached,
+                                HttpResponse response) throws Exception {
+        if (!checkPreconditions(request, response, cached.getEntityTag(),
+                cached.getLastModified(), cached.isVariable())) {
+            return;
+        }
+        byte[] content = cached.getContent();
+        List<ByteRange> ranges = request.getRanges(cached.getEntityTag(),
+                cached.getLastModified(), content.length);
+        if (ranges != null) {
+            sendRanges(response, ranges, cached.getHeaders(), content.length, null,
+                    ByteBuffer.wrap(content), null);
+            return;
+        }
+        response.writeStatusLine(HttpStatusCode.OK);
+        response.writeHeaders(cached.getHeaders(), cached.getEncodedHeaders());
+        response.writeFinalHeaders();
+        response.writeBody(content, 0, content.length);
+    }
+
+    /**
+     * Sends the requested ranges of a file (RFC 7233, section 4.1): a single
+     * range as the body, with its Content-Range, and several ones as the parts
+     * of a multipart/byteranges body, each with its own Content-Range. If none
+     * of the ranges is satisfiable, only the length of the file is sent with
+     * {@link HttpStatusCode#RANGE_NOT_SATISFIABLE}. Each range is sent from its
+     * position in the file, with zero-copy if the connection supports it.
+     *
+     * @param response the {@link HttpResponse}.
+     * @param ranges   the requested {@link ByteRange}s.
+     * @param headers  the headers of the whole file; its Content-Length is not sent.
+     * @param length   the length of the file.
+     * @param file     the {@link File}, if it is mapped in memory.
+     * @param contents the contents of the file in memory, or null.
+     * @param channel  the {@link FileChannel} of the file, if it is not in memory.
+     * @throws Exception any exception that might occur.
+     */
+    private void sendRanges(HttpResponse response, List<ByteRange> ranges,
+                            Map<HttpResponseHeader, String> headers, long length,
+                            File file, ByteBuffer contents, FileChannel channel)
+            throws Exception {
+        if (ranges.isEmpty()) {
+            response.writeStatusLine(HttpStatusCode.RANGE_NOT_SATISFIABLE);
+            response.writeHeader(HttpResponseHeader.ContentRange, "bytes */" + length);
+            response.writeHeader(HttpResponseHeader.ContentLength, "0");
+            response.writeFinalHeaders();
+            return;
+        }
+        response.writeStatusLine(HttpStatusCode.PARTIAL);
+        for (Map.Entry<HttpResponseHeader, String> header : headers.entrySet()) {
+            if (header.getKey() != HttpResponseHeader.ContentLength
+                    && (ranges.size() == 1 || header.getKey() != HttpResponseHeader.ContentType)) {
+                response.writeHeader(header.getKey(), header.getValue());
+            }
+        }
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.writeHeader(HttpResponseHeader.ContentRange, range.toContentRange(length));
+            response.writeHeader(HttpResponseHeader.ContentLength,
+                    String.valueOf(range.getLength()));
+            response.writeFinalHeaders();
+            writeRange(response, file, contents, channel, range.getFirst(), range.getLength());
+            return;
+        }
+        // every part starts with a boundary line and its own headers
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[][] partHeads = new byte[ranges.size()][];
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        long bodyLength = end.length;
+        for (int i = 0; i < partHeads.length; i++) {
+            ByteRange range = ranges.get(i);
+            partHeads[i] = ("\r\n--" + boundary
+                    + "\r\n" + HttpResponseHeader.ContentType.getName() + ": "
+                    + headers.get(HttpResponseHeader.ContentType)
+                    + "\r\n" + HttpResponseHeader.ContentRange.getName() + ": "
+                    + range.toContentRange(length)
+                    + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            bodyLength += partHeads[i].length + range.getLength();
+        }
+        response.writeHeader(HttpResponseHeader.ContentType,
+                "multipart/byteranges; boundary=" + boundary);
+        response.writeHeader(HttpResponseHeader.ContentLength, String.valueOf(bodyLength));
+        response.writeFinalHeaders();
+        for (int i = 0; i < partHeads.length; i++) {
+            ByteRange range = ranges.get(i);
+            response.writeBody(partHeads[i], 0, partHeads[i].length);
+            writeRange(response, file, contents, channel, range.getFirst(), range.getLength());
+        }
+        response.writeBody(end, 0, end.length);
+    }
+
+    /**
+     * Sends part of a file, either from its contents in memory or from its
+     * position in the file, without reading and skipping the bytes before it.
+     *
+     * @param response the {@link HttpResponse}.
+     * @param file     the {@link File}, if it is mapped in memory.
+     * @param contents the contents of the file in memory, or null.
+     * @param channel  the {@link FileChannel} of the file, if it is not in memory.
+     * @param position the position of the first byte to send.
+     * @param count    the number of bytes to send.
+     * @throws Exception any exception that might occur.
+     */
+    private void writeRange(HttpResponse response, File file, ByteBuffer contents,
+                            FileChannel channel, long position, long count)
+            throws Exception {
+        if (contents == null) {
+            response.writeBody(channel, position, count);
+            return;
+        }
+        ByteBuffer range = contents.duplicate();
+        range.limit((int) (position + count));
+        range.position((int) position);
+        try {
+            response.writeBody(range);
+        } catch (InternalError e) {
+            // the file was truncated while it was mapped
+            MappedFileCache.INSTANCE.invalidate(file);
+            throw new IOException("Mapped file " + file + " changed while sending it", e);
+        }
+    }
+
+    /**
+     * Takes an {@link HttpRequest} and an {@link HttpResponse}.
      * Reads all the directory contents from the uri, representing a directory.
      * Sorts the directories first and then the files - in alphabetical order.
+     * The listing is compressed for every response, if the client accepts it.
      *
-     * @param request the {@link HttpRequest}.
-     * @param out     the {@link OutputStream} for the {@link HttpResponse}.
+     * @param request  the {@link HttpRequest}.
+     * @param response the {@link HttpResponse}.
      * @throws Exception any exception that might occur.
      */
-    private void sendDirectoryList(HttpRequest request, OutputStream out)
+    private void sendDirectoryList(HttpRequest request, HttpResponse response)
             throws Exception {
         File dir = new File(root, request.getUri()).getCanonicalFile();
         File[] files = dir.listFiles();
@@ -229,9 +647,7 @@ public class FilesHandler implements Handler {
             if (line.contains("${PATH}")) {
                 line = line.replace("${PATH}", htmlEscape(request.getUri()));
             } else if (line.contains("${ITEM.NAME}")) {
-                for (File f : filesList) {
-                    html.append(getFileEntryHtml(f, line) + "\n");
-                }
+                html.append(getFileEntriesHtml(filesList, line));
                 continue;
             } else if (line.contains("${SERVER}")) {
                 line = line.replace("${SERVER}", HttpServer.SERVER_NAME);
@@ -239,12 +655,48 @@ public class FilesHandler implements Handler {
             html.append(line + "\n");
         }
         // send directory listing response
-        HttpResponse response = new HttpResponse(request, out);
+        byte[] body = html.toString().getBytes("UTF-8");
+        ContentEncoding encoding = getAcceptedEncoding(request);
+        if (encoding != ContentEncoding.IDENTITY) {
+            body = encoding.encode(body, 0, body.length, Deflater.DEFAULT_COMPRESSION);
+        }
         response.writeStatusLine(HttpStatusCode.OK);
         response.writeHeader(HttpResponseHeader.ContentType,
                 "text/html; charset=utf-8");
+        response.writeHeader(HttpResponseHeader.ContentLength,
+                String.valueOf(body.length));
+        if (encoding != ContentEncoding.IDENTITY) {
+            response.writeHeader(HttpResponseHeader.ContentEncoding, encoding.getName());
+        }
+        response.writeHeader(HttpResponseHeader.Vary, "Accept-Encoding");
         response.writeFinalHeaders();
-        response.writeBody(html.toString());
+        response.writeBody(body, 0, body.length);
+    }
+
+    /**
+     * Takes a list of {@link File}s and an HTML template and builds the HTML
+     * of all the file entries. When running in a {@link ForkJoinPool}, large
+     * directories are split and rendered in parallel by the pool's workers.
+     *
+     * @param files        the list of {@link File}s.
+     * @param lineTemplate the line HTML template.
+     * @return the HTML of all the file entries.
+     * @throws IOException any exception that might occur.
+     */
+    private String getFileEntriesHtml(List<File> files, String lineTemplate)
+            throws IOException {
+        if (files.size() <= LISTING_FORK_THRESHOLD || !ForkJoinTask.inForkJoinPool()) {
+            StringBuilder html = new StringBuilder();
+            for (File f : files) {
+                html.append(getFileEntryHtml(f, lineTemplate)).append("\n");
+            }
+            return html.toString();
+        }
+        try {
+            return new ListingTask(files, lineTemplate).invoke();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
@@ -260,7 +712,6 @@ public class FilesHandler implements Handler {
             throws IOException {
         boolean isDirectory = file.isDirectory();
         String html = lineTemplate;
-        SimpleDateFormat df = new SimpleDateFormat("yyyy-MMM-dd HH:mm:ss zzz");
 
         // lazy way of replacing (some) html special chars
         String fName = htmlEscape(file.getName());
@@ -275,7 +726,7 @@ public class FilesHandler implements Handler {
                 : MimeTypes.INSTANCE.getMimeTypeFor(file.getCanonicalPath());
         String itemLink = isDirectory ? fLink + "/" : fLink;
         String itemBs = isDirectory ? "/" : "";
-        String itemDate = df.format(new Date(file.lastModified()));
+        String itemDate = LISTING_DATE_FORMAT.format(Instant.ofEpochMilli(file.lastModified()));
 
         html = html.replace("${ITEM.NAME}", fName);
         html = html.replace("${ITEM.LINK}", itemLink);
@@ -321,13 +772,13 @@ public class FilesHandler implements Handler {
      * Generates the HTML error page based on the {@link HttpRequest} and
      * the {@link HttpException} and sends it as a {@link HttpResponse}.
      *
-     * @param request the {@link HttpRequest}.
-     * @param out     {@link OutputStream} from the client {@link Socket}.
-     * @param e       the {@link HttpException}.
+     * @param request  the {@link HttpRequest}, null if it could not be parsed.
+     * @param response the {@link HttpResponse}.
+     * @param e        the {@link HttpException}.
      * @throws Exception any exception that might occur.
      */
-    private void sendError(HttpRequest request, OutputStream out, HttpException e)
-            throws Exception {
+    private void sendError(HttpRequest request, HttpResponse response,
+                           HttpException e) throws Exception {
         // read html error page template from resources
         InputStream in = getClass().getResourceAsStream("/templates/error.html");
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
@@ -344,15 +795,58 @@ public class FilesHandler implements Handler {
             html.append(line + "\n");
         }
         // send error response
-        HttpResponse response = new HttpResponse(request, out);
+        byte[] body = html.toString().getBytes("UTF-8");
         response.writeStatusLine(HttpStatusCode.forCode(e.getCode()));
         response.writeHeader(HttpResponseHeader.ContentType,
                 "text/html; charset=utf-8");
+        response.writeHeader(HttpResponseHeader.ContentLength,
+                String.valueOf(body.length));
         if (e.getCode() == HttpStatusCode.MOVED_PERM.getStatusCode()) {
+            String query = request.getQueryString();
             response.writeHeader(HttpResponseHeader.Location,
-                    request.getUri() + "/");
+                    request.getUri() + "/" + (query != null ? "?" + query : ""));
         }
         response.writeFinalHeaders();
-        response.writeBody(html.toString());
+        response.writeBody(body, 0, body.length);
+    }
+
+    /**
+     * Renders the file entries of a directory listing, forking
+     * the halves of the list until they are small enough.
+     */
+    private class ListingTask extends RecursiveTask<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final String lineTemplate;
+
+        /**
+         * Creates a new ListingTask.
+         *
+         * @param files        the list of {@link File}s.
+         * @param lineTemplate the line HTML template.
+         */
+        public ListingTask(List<File> files, String lineTemplate) {
+            this.files = files;
+            this.lineTemplate = lineTemplate;
+        }
+
+        @Override
+        protected String compute() {
+            try {
+                if (files.size() <= LISTING_FORK_THRESHOLD) {
+                    return getFileEntriesHtml(files, lineTemplate);
+                }
+                int middle = files.size() / 2;
+                ListingTask left = new ListingTask(files.subList(0, middle), lineTemplate);
+                ListingTask right = new ListingTask(
+                        files.subList(middle, files.size()), lineTemplate);
+                left.fork();
+                String rightHtml = right.compute();
+                return left.join() + rightHtml;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 }
\ No newline at end of file
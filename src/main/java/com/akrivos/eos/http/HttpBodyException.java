@@ -0,0 +1,43 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpStatusCode;
+
+import java.io.IOException;
+
+/**
+ * An {@link IOException} thrown while reading a request body that is
+ * malformed or too large, with the {@link HttpStatusCode} to answer with.
+ */
+public class HttpBodyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final HttpStatusCode statusCode;
+
+    /**
+     * Creates a new {@link HttpBodyException} from an {@link HttpStatusCode}.
+     *
+     * @param statusCode the {@link HttpStatusCode}.
+     */
+    public HttpBodyException(HttpStatusCode statusCode) {
+        super(statusCode.getReasonPhrase());
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns the {@link HttpStatusCode} to answer with.
+     *
+     * @return the {@link HttpStatusCode}.
+     */
+    public HttpStatusCode getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns an {@link HttpException} to answer with.
+     *
+     * @return the {@link HttpException}.
+     */
+    public HttpException toHttpException() {
+        return new HttpException(statusCode);
+    }
+}
@@ -0,0 +1,249 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpStatusCode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link InputStream} over the body of a request, delimited either by
+ * its Content-Length or by its chunked Transfer-Encoding, which it decodes.
+ * It never reads past the end of the body, so the connection's stream can
+ * be used for the next request afterwards, and it refuses bodies larger than
+ * the maximum size, however they are sent. Closing it does not close the
+ * connection.
+ */
+public class HttpBodyInputStream extends InputStream {
+    private static final int MAX_CHUNK_LINE_LENGTH = 4096;
+
+    private final InputStream in;
+    private final boolean chunked;
+    private final long maxSize;
+    private final StringBuilder line;
+    private long remaining;
+    private long size;
+    private boolean firstChunk;
+    private boolean eof;
+    private OutputStream continueStream;
+    private boolean continueSent;
+
+    /**
+     * Creates a new HttpBodyInputStream.
+     *
+     * @param in            the {@link InputStream} of the connection.
+     * @param contentLength the Content-Length of the body, ignored if chunked.
+     * @param chunked       whether the body is sent in chunks.
+     * @param maxSize       the maximum size of the (decoded) body.
+     */
+    public HttpBodyInputStream(InputStream in, long contentLength,
+                               boolean chunked, long maxSize) {
+        this.in = in;
+        this.chunked = chunked;
+        this.maxSize = maxSize;
+        line = new StringBuilder();
+        firstChunk = true;
+        if (!chunked) {
+            remaining = Math.max(0, contentLength);
+            eof = contentLength <= 0;
+        }
+    }
+
+    /**
+     * Makes the stream send a 100 (Continue) interim response to the given
+     * {@link OutputStream} right before the body is first read, for a client
+     * that waits for it before sending the body.
+     *
+     * @param out the {@link OutputStream} of the connection.
+     */
+    void setContinueStream(OutputStream out) {
+        continueStream = out;
+    }
+
+    /**
+     * Checks if a 100 (Continue) interim response has been sent.
+     *
+     * @return true if the 100 (Continue) has been sent, false otherwise.
+     */
+    boolean isContinueSent() {
+        return continueSent;
+    }
+
+    /**
+     * Returns the number of (decoded) bytes read so far.
+     *
+     * @return the number of bytes read.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Checks if the whole body has been read.
+     *
+     * @return true if the body has been read, false otherwise.
+     */
+    public boolean isFinished() {
+        return eof;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (continueStream != null && !continueSent && !eof) {
+            sendContinue();
+        }
+        if (remaining == 0 && !nextChunk()) {
+            return -1;
+        }
+        int count = in.read(b, off, (int) Math.min(len, remaining));
+        if (count < 0) {
+            throw new EOFException("The request body ended prematurely");
+        }
+        remaining -= count;
+        size += count;
+        if (size > maxSize) {
+            throw new HttpBodyException(HttpStatusCode.ENTITY_TOO_LARGE);
+        }
+        if (remaining == 0 && !chunked) {
+            eof = true;
+        }
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return eof ? 0 : (int) Math.min(remaining, in.available());
+    }
+
+    /**
+     * Reads and discards the rest of the body.
+     *
+     * @throws IOException any exception that might occur.
+     */
+    public void drain() throws IOException {
+        byte[] buffer = new byte[4 * 1024];
+        while (read(buffer, 0, buffer.length) >= 0) {
+            // discard
+        }
+    }
+
+    /**
+     * Does not close the connection, as it may be used for the next request.
+     */
+    @Override
+    public void close() {
+        // nothing to close
+    }
+
+    /**
+     * Sends the 100 (Continue) interim response, flushing it (and any
+     * responses before it) so that the client starts sending the body.
+     *
+     * @throws IOException any exception that might occur.
+     */
+    private void sendContinue() throws IOException {
+        continueSent = true;
+        // an interim response has no headers
+        continueStream.write(HttpResponse.getStatusLine(HttpStatusCode.CONTINUE));
+        continueStream.write('\r');
+        continueStream.write('\n');
+        continueStream.flush();
+    }
+
+    /**
+     * Moves to the next chunk of a chunked body, reading its size line and,
+     * for the last chunk, the trailers.
+     *
+     * @return true if there is a chunk to read, false if the body has ended.
+     * @throws IOException any exception that might occur.
+     */
+    private boolean nextChunk() throws IOException {
+        if (eof || !chunked) {
+            eof = true;
+            return false;
+        }
+        if (!firstChunk && readLine().length() != 0) {
+            // the chunk data must be followed by CRLF
+            throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+        }
+        firstChunk = false;
+        remaining = parseChunkSize(readLine());
+        if (remaining == 0) {
+            // skip the trailers
+            while (readLine().length() != 0) {
+                // ignore
+            }
+            eof = true;
+            return false;
+        }
+        if (size + remaining > maxSize) {
+            throw new HttpBodyException(HttpStatusCode.ENTITY_TOO_LARGE);
+        }
+        return true;
+    }
+
+    /**
+     * Parses the hexadecimal size of a chunk, ignoring any chunk extensions.
+     *
+     * @param sizeLine the chunk size line.
+     * @return the size of the chunk.
+     * @throws HttpBodyException if the size is not valid.
+     */
+    private static long parseChunkSize(CharSequence sizeLine) throws HttpBodyException {
+        long chunkSize = 0;
+        int digits = 0;
+        for (int i = 0; i < sizeLine.length(); i++) {
+            int digit = Character.digit(sizeLine.charAt(i), 16);
+            if (digit < 0) {
+                char c = sizeLine.charAt(i);
+                if (c == ';' || c == ' ' || c == '\t') {
+                    break;
+                }
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+            if (++digits > 15) {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+            chunkSize = chunkSize * 16 + digit;
+        }
+        if (digits == 0) {
+            throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+        }
+        return chunkSize;
+    }
+
+    /**
+     * Reads a line of the chunked encoding, terminated by LF or CRLF.
+     *
+     * @return the line without its terminator.
+     * @throws IOException any exception that might occur.
+     */
+    private StringBuilder readLine() throws IOException {
+        line.setLength(0);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line;
+            }
+            if (line.length() >= MAX_CHUNK_LINE_LENGTH) {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+            line.append((char) b);
+        }
+        throw new EOFException("The request body ended prematurely");
+    }
+}
@@ -0,0 +1,324 @@
+package com.akrivos.eos.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A singleton enum to format and parse HTTP dates (RFC 7231, section 7.1.1.1),
+ * e.g. Sun, 06 Nov 1994 08:49:37 GMT, without {@link java.text.SimpleDateFormat},
+ * which is neither cheap to create nor thread-safe. The current date, sent
+ * with every response, is only formatted once per second and kept encoded.
+ */
+public enum HttpDate {
+    INSTANCE;
+
+    /**
+     * The length of a formatted HTTP date.
+     */
+    public static final int LENGTH = 29;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final String[] DAYS = {"Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+            "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private volatile CurrentDate current;
+
+    /**
+     * Returns the current date, formatted as an HTTP date.
+     *
+     * @return the current date.
+     */
+    public String getCurrentDate() {
+        return current().text;
+    }
+
+    /**
+     * Returns the current date, formatted as an HTTP date and encoded.
+     * The returned array is shared and must not be modified.
+     *
+     * @return the encoded current date.
+     */
+    public byte[] getCurrentDateBytes() {
+        return current().bytes;
+    }
+
+    /**
+     * Formats the given time as an HTTP date.
+     *
+     * @param millis the time in milliseconds since the epoch.
+     * @return the HTTP date.
+     */
+    public String format(long millis) {
+        byte[] date = new byte[LENGTH];
+        format(millis, date, 0);
+        return new String(date, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Formats the given time as an HTTP date into the given array,
+     * without allocating anything.
+     *
+     * @param millis the time in milliseconds since the epoch.
+     * @param dst    the array to write the date to.
+     * @param offset the offset to write the date at.
+     * @return the offset right after the date.
+     */
+    public int format(long millis, byte[] dst, int offset) {
+        return formatDate(millis, dst, offset);
+    }
+
+    /**
+     * Parses an HTTP date, in the preferred RFC 1123 format or in one of the
+     * obsolete RFC 850 and ANSI C asctime() formats, which must also be accepted.
+     * Sun, 06 Nov 1994 08:49:37 GMT
+     * Sunday, 06-Nov-94 08:49:37 GMT
+     * Sun Nov  6 08:49:37 1994
+     *
+     * @param date the HTTP date.
+     * @return the time in milliseconds since the epoch, or -1 if the date is not valid.
+     */
+    public long parse(String date) {
+        if (date == null) {
+            return -1;
+        }
+        date = date.trim();
+        int comma = date.indexOf(',');
+        int day;
+        int month;
+        int year;
+        int time;
+        if (comma < 0) {
+            // asctime: Sun Nov  6 08:49:37 1994
+            if (date.length() != 24 || date.charAt(3) != ' ' || date.charAt(7) != ' ') {
+                return -1;
+            }
+            month = parseMonth(date, 4);
+            day = parseNumber(date, date.charAt(8) == ' ' ? 9 : 8, 10);
+            time = parseTime(date, 11);
+            year = parseNumber(date, 20, 24);
+            if (date.charAt(10) != ' ' || date.charAt(19) != ' ') {
+                return -1;
+            }
+        } else if (date.length() - comma == 26) {
+            // RFC 1123: Sun, 06 Nov 1994 08:49:37 GMT
+            int i = comma + 2;
+            day = parseNumber(date, i, i + 2);
+            month = parseMonth(date, i + 3);
+            year = parseNumber(date, i + 7, i + 11);
+            time = parseTime(date, i + 12);
+            if (date.charAt(comma + 1) != ' ' || date.charAt(i + 2) != ' '
+                    || date.charAt(i + 6) != ' ' || date.charAt(i + 11) != ' '
+                    || !date.startsWith("GMT", i + 21)) {
+                return -1;
+            }
+        } else if (date.length() - comma == 24) {
+            // RFC 850: Sunday, 06-Nov-94 08:49:37 GMT
+            int i = comma + 2;
+            day = parseNumber(date, i, i + 2);
+            month = parseMonth(date, i + 3);
+            year = parseNumber(date, i + 7, i + 9);
+            time = parseTime(date, i + 10);
+            if (date.charAt(comma + 1) != ' ' || date.charAt(i + 2) != '-'
+                    || date.charAt(i + 6) != '-' || date.charAt(i + 9) != ' '
+                    || !date.startsWith("GMT", i + 19)) {
+                return -1;
+            }
+            if (year >= 0) {
+                // a two digit year more than 50 years in the future is in the past
+                year += year < 70 ? 2000 : 1900;
+            }
+        } else {
+            return -1;
+        }
+        if (day < 1 || day > 31 || month < 0 || year < 0 || time < 0) {
+            return -1;
+        }
+        return daysFromCivil(year, month + 1, day) * MILLIS_PER_DAY + time * 1000L;
+    }
+
+    /**
+     * Returns the current date, formatting it again if a second has passed.
+     *
+     * @return the {@link CurrentDate}.
+     */
+    private CurrentDate current() {
+        long second = System.currentTimeMillis() / 1000;
+        CurrentDate date = current;
+        if (date == null || date.second != second) {
+            // threads racing here format the same date, so any of them may win
+            date = new CurrentDate(second);
+            current = date;
+        }
+        return date;
+    }
+
+    /**
+     * Formats the given time as an HTTP date into the given array.
+     *
+     * @param millis the time in milliseconds since the epoch.
+     * @param dst    the array to write the date to.
+     * @param offset the offset to write the date at.
+     * @return the offset right after the date.
+     */
+    private static int formatDate(long millis, byte[] dst, int offset) {
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(millis, MILLIS_PER_DAY) / 1000);
+
+        // the civil date of a day since the epoch (Howard Hinnant's algorithm)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        int i = offset;
+        i = append(DAYS[(int) Math.floorMod(days, 7L)], dst, i);
+        dst[i++] = ',';
+        dst[i++] = ' ';
+        i = appendDigits(day, 2, dst, i);
+        dst[i++] = ' ';
+        i = append(MONTHS[month - 1], dst, i);
+        dst[i++] = ' ';
+        i = appendDigits((int) year, 4, dst, i);
+        dst[i++] = ' ';
+        i = appendDigits(secondOfDay / 3600, 2, dst, i);
+        dst[i++] = ':';
+        i = appendDigits(secondOfDay / 60 % 60, 2, dst, i);
+        dst[i++] = ':';
+        i = appendDigits(secondOfDay % 60, 2, dst, i);
+        dst[i++] = ' ';
+        return append("GMT", dst, i);
+    }
+
+    /**
+     * Returns the days since the epoch of a civil date (Howard Hinnant's algorithm).
+     *
+     * @param year  the year.
+     * @param month the month, 1 to 12.
+     * @param day   the day of the month.
+     * @return the days since the epoch.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * Parses the three letter month at the given index.
+     *
+     * @param date  the date.
+     * @param index the index of the month.
+     * @return the month, 0 to 11, or -1 if it is not valid.
+     */
+    private static int parseMonth(String date, int index) {
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (date.regionMatches(index, MONTHS[i], 0, 3)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses an hh:mm:ss time at the given index.
+     *
+     * @param date  the date.
+     * @param index the index of the time.
+     * @return the seconds of the day, or -1 if the time is not valid.
+     */
+    private static int parseTime(String date, int index) {
+        if (date.charAt(index + 2) != ':' || date.charAt(index + 5) != ':') {
+            return -1;
+        }
+        int hours = parseNumber(date, index, index + 2);
+        int minutes = parseNumber(date, index + 3, index + 5);
+        int seconds = parseNumber(date, index + 6, index + 8);
+        // allow a leap second
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+                || seconds < 0 || seconds > 60) {
+            return -1;
+        }
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    /**
+     * Parses the decimal digits between the given indexes.
+     *
+     * @param date  the date.
+     * @param start the index of the first digit.
+     * @param end   the index after the last digit.
+     * @return the number, or -1 if there are other characters.
+     */
+    private static int parseNumber(String date, int start, int end) {
+        int number = 0;
+        for (int i = start; i < end; i++) {
+            char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Appends the characters of an ASCII String to the given array.
+     *
+     * @param text   the String.
+     * @param dst    the array.
+     * @param offset the offset to write at.
+     * @return the offset after the String.
+     */
+    private static int append(String text, byte[] dst, int offset) {
+        for (int i = 0; i < text.length(); i++) {
+            dst[offset++] = (byte) text.charAt(i);
+        }
+        return offset;
+    }
+
+    /**
+     * Appends a number, zero-padded to the given number of digits.
+     *
+     * @param number the number.
+     * @param digits the number of digits.
+     * @param dst    the array.
+     * @param offset the offset to write at.
+     * @return the offset after the number.
+     */
+    private static int appendDigits(int number, int digits, byte[] dst, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dst[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return offset + digits;
+    }
+
+    /**
+     * The current date of a second, formatted once.
+     */
+    private static final class CurrentDate {
+        private final long second;
+        private final byte[] bytes;
+        private final String text;
+
+        /**
+         * Creates a new CurrentDate.
+         *
+         * @param second the seconds since the epoch.
+         */
+        private CurrentDate(long second) {
+            this.second = second;
+            bytes = new byte[LENGTH];
+            formatDate(second * 1000, bytes, 0);
+            text = new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import com.akrivos.eos.http.constants.HttpStatusCode;
  * describing an exception during an {@link HttpRequest} parsing.
  */
 public class HttpException extends Exception {
+    private static final long serialVersionUID = 1L;
+
     private final int code;
 
     /**
@@ -0,0 +1,137 @@
+package com.akrivos.eos.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The parameters of a request, from its query string and its body, kept in
+ * two parallel arrays of names and values in the order they were sent.
+ * Requests usually have a handful of parameters, for which a linear search
+ * is faster than hashing, and a name may be sent more than once.
+ */
+public class HttpParameters {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] names;
+    private String[] values;
+    private int size;
+
+    /**
+     * Creates a new, empty {@link HttpParameters}.
+     */
+    public HttpParameters() {
+        names = new String[INITIAL_CAPACITY];
+        values = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the value of the first parameter with the given name.
+     *
+     * @param name the parameter's name.
+     * @return the value of the parameter if found, null otherwise.
+     */
+    public String get(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the values of all the parameters with the given name.
+     *
+     * @param name the parameter's name.
+     * @return the values, empty if there is no such parameter.
+     */
+    public List<String> getAll(String name) {
+        List<String> all = new ArrayList<String>(1);
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                all.add(values[i]);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the name of the parameter at the given index.
+     *
+     * @param index the index of the parameter.
+     * @return the name.
+     */
+    public String getName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * Returns the value of the parameter at the given index.
+     *
+     * @param index the index of the parameter.
+     * @return the value.
+     */
+    public String getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * Returns the number of parameters.
+     *
+     * @return the number of parameters.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if there are no parameters.
+     *
+     * @return true if there are no parameters, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds a parameter after the existing ones.
+     *
+     * @param name  the parameter's name.
+     * @param value the parameter's value.
+     */
+    void add(String name, String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Checks that the index is within the parameters.
+     *
+     * @param index the index.
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(names[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+}
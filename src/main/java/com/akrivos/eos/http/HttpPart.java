@@ -0,0 +1,230 @@
+package com.akrivos.eos.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A part of a multipart/form-data request body, e.g. a form field or an
+ * uploaded file. Small parts are kept in memory, while parts larger than
+ * the threshold are spilled to a temporary file as they are read, which
+ * is deleted with {@link #delete()} once the request has been handled.
+ */
+public class HttpPart {
+    private static final String TEMP_FILE_PREFIX = "eos-part-";
+
+    private final Map<String, String> headers;
+    private final String name;
+    private final String fileName;
+    private final int threshold;
+    private ByteArrayOutputStream memory;
+    private File file;
+    private FileChannel channel;
+    private long size;
+
+    /**
+     * Creates a new {@link HttpPart}.
+     *
+     * @param headers   the headers of the part.
+     * @param name      the name of the form field.
+     * @param fileName  the name of the uploaded file, null if it is not a file.
+     * @param threshold the size in bytes above which the part is spilled to disk.
+     */
+    HttpPart(Map<String, String> headers, String name, String fileName, int threshold) {
+        this.headers = headers;
+        this.name = name;
+        this.fileName = fileName;
+        this.threshold = threshold;
+        memory = new ByteArrayOutputStream(Math.min(threshold, 1024));
+    }
+
+    /**
+     * Returns the name of the form field of the part.
+     *
+     * @return the name, null if the part has none.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the name of the uploaded file, as sent by the client.
+     *
+     * @return the file name, null if the part is not a file.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the Content-Type of the part.
+     *
+     * @return the Content-Type, null if it was not sent.
+     */
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    /**
+     * Returns the value of the given header of the part.
+     *
+     * @param header the header's name, case-insensitive.
+     * @return the value of the header if found, null otherwise.
+     */
+    public String getHeader(String header) {
+        return headers.get(header);
+    }
+
+    /**
+     * Returns the headers of the part.
+     *
+     * @return the headers.
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Returns the size of the content of the part.
+     *
+     * @return the size in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Checks if the content of the part is kept in memory.
+     *
+     * @return true if it is in memory, false if it was spilled to disk.
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Returns the temporary file the content of the part was spilled to.
+     *
+     * @return the {@link File}, null if the part is kept in memory.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an {@link InputStream} to read the content of the part.
+     *
+     * @return the {@link InputStream}.
+     * @throws IOException if the temporary file cannot be opened.
+     */
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        return new ByteArrayInputStream(memory.toByteArray());
+    }
+
+    /**
+     * Returns the content of the part as a String, e.g. the value of
+     * a form field.
+     *
+     * @param encoding the character encoding of the content.
+     * @return the content.
+     * @throws IOException if the content cannot be read or decoded.
+     */
+    public String getString(String encoding) throws IOException {
+        if (file == null) {
+            return memory.toString(encoding);
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(size, 64 * 1024));
+        InputStream in = getInputStream();
+        try {
+            byte[] buffer = new byte[4 * 1024];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) >= 0) {
+                content.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            in.close();
+        }
+        return content.toString(encoding);
+    }
+
+    /**
+     * Deletes the temporary file of the part, if it was spilled to disk.
+     */
+    public void delete() {
+        closeChannel();
+        if (file != null && !file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Appends content to the part, spilling it to a temporary file
+     * through a {@link FileChannel} once it grows above the threshold.
+     *
+     * @param b   the content.
+     * @param off the offset of the content.
+     * @param len the length of the content.
+     * @throws IOException if the temporary file cannot be written.
+     */
+    void write(byte[] b, int off, int len) throws IOException {
+        if (channel == null && size + len > threshold) {
+            file = File.createTempFile(TEMP_FILE_PREFIX, null);
+            channel = new FileOutputStream(file).getChannel();
+            writeToChannel(memory.toByteArray(), 0, memory.size());
+            memory = null;
+        }
+        if (channel != null) {
+            writeToChannel(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Finishes writing the content of the part.
+     */
+    void finish() {
+        closeChannel();
+    }
+
+    /**
+     * Writes content to the {@link FileChannel} of the temporary file.
+     *
+     * @param b   the content.
+     * @param off the offset of the content.
+     * @param len the length of the content.
+     * @throws IOException if the temporary file cannot be written.
+     */
+    private void writeToChannel(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Closes the {@link FileChannel} of the temporary file, if open.
+     */
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+}
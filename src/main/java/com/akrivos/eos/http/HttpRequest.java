@@ -1,14 +1,20 @@
 package com.akrivos.eos.http;
 
+import com.akrivos.eos.config.Settings;
 import com.akrivos.eos.http.constants.HttpMethod;
 import com.akrivos.eos.http.constants.HttpRequestHeader;
 import com.akrivos.eos.http.constants.HttpStatusCode;
 import org.apache.log4j.Logger;
 
 import java.io.*;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,12 +25,19 @@ import java.util.regex.Pattern;
 public class HttpRequest {
     private static final Logger logger = Logger.getLogger(HttpRequest.class);
     private static final int MAX_URI_LENGTH = 4096;
+    private static final Pattern BOUNDARY_PATTERN = Pattern.compile(
+            "boundary=(?:\"([^\"]+)\"|([^;\\s]+))", Pattern.CASE_INSENSITIVE);
 
-    private final Map<HttpRequestHeader, String> headers;
-    private final Map<String, String> parameters;
-    private final BufferedReader reader;
+    private final HttpRequestParser parser;
+    private final InputStream in;
+    private HttpParameters parameters;
+    private HttpBodyInputStream body;
+    private boolean expectsContinue;
+    private MultipartParser multipart;
+    private List<HttpPart> parts;
     private HttpMethod method;
     private String uri;
+    private String query;
     private float httpVersion;
 
     /**
@@ -34,11 +47,31 @@ public class HttpRequest {
      * @param inputStream the {@link InputStream}.
      * @throws HttpException any {@link HttpException} that might occur
      *                       during the creation of an {@link HttpRequest}.
+     * @see #HttpRequest(InputStream, HttpRequestParser)
      */
     public HttpRequest(InputStream inputStream) throws HttpException {
-        headers = new HashMap<HttpRequestHeader, String>();
-        parameters = new HashMap<String, String>();
-        reader = new BufferedReader(new InputStreamReader(inputStream));
+        this(inputStream, new HttpRequestParser());
+    }
+
+    /**
+     * Creates a new {@link HttpRequest} with an {@link InputStream} from
+     * the client's {@link java.net.Socket} to start reading data, reusing
+     * the {@link HttpRequestParser} (and its buffer) of the connection.
+     * Nothing after the request is read from the {@link InputStream}, if
+     * it supports marking (e.g. it is buffered), so it can be reused for
+     * the next request of a persistent connection. The request is only
+     * valid until the parser is used for the next request.
+     *
+     * @param inputStream the {@link InputStream}.
+     * @param parser      the {@link HttpRequestParser} of the connection.
+     * @throws HttpException any {@link HttpException} that might occur
+     *                       during the creation of an {@link HttpRequest}.
+     */
+    public HttpRequest(InputStream inputStream, HttpRequestParser parser)
+            throws HttpException {
+        this.parser = parser;
+        in = inputStream;
+        parser.reset();
         parseRequest();
     }
 
@@ -52,7 +85,7 @@ public class HttpRequest {
     }
 
     /**
-     * Returns the Uri.
+     * Returns the decoded path of the Uri, without the query string.
      *
      * @return the Uri.
      */
@@ -60,6 +93,15 @@ public class HttpRequest {
         return uri;
     }
 
+    /**
+     * Returns the (undecoded) query string of the Uri, after the '?'.
+     *
+     * @return the query string, null if there is none.
+     */
+    public String getQueryString() {
+        return query;
+    }
+
     /**
      * Returns the HTTP version.
      *
@@ -77,29 +119,434 @@ public class HttpRequest {
      *         null otherwise.
      */
     public String getHeader(HttpRequestHeader header) {
-        return headers.get(header);
+        return parser.getHeader(header);
+    }
+
+    /**
+     * Returns the value of the header with the given name, which is matched
+     * case-insensitively, including the headers not known as an
+     * {@link HttpRequestHeader}.
+     *
+     * @param name the name of the header.
+     * @return the value of the header if found, null otherwise.
+     */
+    public String getHeader(String name) {
+        return parser.getHeader(name);
+    }
+
+    /**
+     * Returns the number of headers of the request.
+     *
+     * @return the number of headers.
+     */
+    public int getHeaderCount() {
+        return parser.getHeaderCount();
+    }
+
+    /**
+     * Returns the name of a header, as sent by the client.
+     *
+     * @param index the index of the header, in the order they were sent.
+     * @return the name of the header.
+     */
+    public String getHeaderName(int index) {
+        return parser.getHeaderName(index);
+    }
+
+    /**
+     * Returns the value of a header.
+     *
+     * @param index the index of the header, in the order they were sent.
+     * @return the value of the header.
+     */
+    public String getHeaderValue(int index) {
+        return parser.getHeaderValue(index);
     }
 
     /**
-     * Returns the value of the given parameter.
+     * Returns the value of the given parameter, from the query string or
+     * the body. The parameters are only decoded the first time they are
+     * asked for, so requests that do not use them do not pay for them.
      *
      * @param parameter the parameter's name.
      * @return the value of the parameter if found, null otherwise.
+     * @throws HttpException any {@link HttpException} that might occur
+     *                       while decoding the parameters.
+     */
+    public String getParameter(String parameter) throws HttpException {
+        return getParameters().get(parameter);
+    }
+
+    /**
+     * Returns all the parameters of the request, first the ones of the
+     * query string and then the ones of the body, decoding them the first
+     * time they are asked for.
+     *
+     * @return the {@link HttpParameters}.
+     * @throws HttpException any {@link HttpException} that might occur
+     *                       while decoding the parameters.
+     */
+    public HttpParameters getParameters() throws HttpException {
+        if (parameters == null) {
+            parameters = new HttpParameters();
+            decodeQueryParameters();
+            decodeParameters();
+        }
+        return parameters;
+    }
+
+    /**
+     * Reads the next part of a multipart/form-data request body. Parts are
+     * read one at a time as the body arrives, and the ones larger than the
+     * threshold are spilled to temporary files, so an upload of any size can
+     * be received in constant memory. The parts read are kept until
+     * {@link #deleteParts()} is called.
+     *
+     * @return the next {@link HttpPart}, or null if there are no more parts
+     *         or the body is not multipart/form-data.
+     * @throws HttpException any {@link HttpException} that might occur
+     *                       while reading the part.
+     */
+    public HttpPart nextPart() throws HttpException {
+        if (parts == null) {
+            parts = new ArrayList<HttpPart>();
+            String contentType = getHeader(HttpRequestHeader.ContentType);
+            if ((method != HttpMethod.POST && method != HttpMethod.PUT)
+                    || contentType == null || !contentType.contains("multipart/form-data")) {
+                return null;
+            }
+            Matcher boundaryMatcher = BOUNDARY_PATTERN.matcher(contentType);
+            if (!boundaryMatcher.find()) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+            String boundary = boundaryMatcher.group(1) != null
+                    ? boundaryMatcher.group(1) : boundaryMatcher.group(2);
+            multipart = new MultipartParser(body, boundary, Settings.INSTANCE
+                    .getValueAsIntegerFor(Settings.SERVER_MULTIPART_THRESHOLD));
+        }
+        if (multipart == null) {
+            return null;
+        }
+        try {
+            HttpPart part = multipart.nextPart();
+            if (part != null) {
+                parts.add(part);
+            }
+            return part;
+        } catch (IOException e) {
+            throw toHttpException(e);
+        }
+    }
+
+    /**
+     * Returns all the parts of a multipart/form-data request body, reading
+     * the ones that have not been read yet.
+     *
+     * @return the list of {@link HttpPart}s, empty if the body is not multipart/form-data.
+     * @throws HttpException any {@link HttpException} that might occur
+     *                       while reading the parts.
+     * @see #nextPart()
+     */
+    public List<HttpPart> getParts() throws HttpException {
+        while (nextPart() != null) {
+            // read the rest of the parts
+        }
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Deletes the temporary files of the parts that were spilled to disk.
+     */
+    public void deleteParts() {
+        if (parts != null) {
+            for (HttpPart part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the body of the request as an {@link InputStream}, which
+     * decodes a chunked body and refuses bodies larger than the maximum
+     * size with an {@link HttpBodyException}. The body is read as it arrives,
+     * so it can be processed in constant memory, however large it is.
+     *
+     * @return the body {@link InputStream}.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the body of the request as a {@link ReadableByteChannel}.
+     *
+     * @return the body {@link ReadableByteChannel}.
+     * @see #getBody()
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return Channels.newChannel(body);
+    }
+
+    /**
+     * Returns the quality value the client gives to a content coding in its
+     * Accept-Encoding header (RFC 7231, section 5.3.4). Without the header,
+     * only the identity coding is acceptable. The identity coding is also
+     * acceptable if not mentioned, unless it is excluded with "*;q=0".
+     *
+     * @param coding the name of the content coding, e.g. gzip.
+     * @return the quality value, 0 if the coding is not acceptable.
+     */
+    public float getEncodingQuality(String coding) {
+        boolean identity = coding.equalsIgnoreCase("identity");
+        String acceptEncoding = getHeader(HttpRequestHeader.AcceptEncoding);
+        if (acceptEncoding == null) {
+            return identity ? 1f : 0f;
+        }
+        float any = -1f;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String name = (semicolon < 0 ? element : element.substring(0, semicolon)).trim();
+            float quality = 1f;
+            if (semicolon >= 0) {
+                String parameter = element.substring(semicolon + 1).trim();
+                if (parameter.length() > 2 && (parameter.charAt(0) == 'q'
+                        || parameter.charAt(0) == 'Q') && parameter.charAt(1) == '=') {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0f;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) {
+                return Math.max(0f, Math.min(1f, quality));
+            }
+            if (name.equals("*")) {
+                any = Math.max(0f, Math.min(1f, quality));
+            }
+        }
+        if (any >= 0f) {
+            return any;
+        }
+        return identity ? 1f : 0f;
+    }
+
+    /**
+     * Evaluates the preconditions of the request against the current
+     * entity tag and last modified time of the target (RFC 7232, section 6).
+     * If-Match and If-Unmodified-Since are checked first, then If-None-Match
+     * or, without it, If-Modified-Since for GET and HEAD requests. Dates that
+     * are not valid are ignored, as are If-Modified-Since dates in the future.
+     *
+     * @param entityTag    the quoted, strong entity tag of the target.
+     * @param lastModified the last modified time of the target.
+     * @return {@link HttpStatusCode#PRECON_FAILED} or {@link HttpStatusCode#NOT_MODIFIED}
+     *         if the request should not be served, null otherwise.
+     */
+    public HttpStatusCode checkPreconditions(String entityTag, long lastModified) {
+        String ifMatch = getHeader(HttpRequestHeader.IfMatch);
+        if (ifMatch != null) {
+            if (!matchesEntityTag(ifMatch, entityTag, false)) {
+                return HttpStatusCode.PRECON_FAILED;
+            }
+        } else {
+            long date = HttpDate.INSTANCE.parse(getHeader(HttpRequestHeader.IfUnmodifiedSince));
+            if (date >= 0 && lastModified / 1000 > date / 1000) {
+                return HttpStatusCode.PRECON_FAILED;
+            }
+        }
+        boolean safe = method == HttpMethod.GET || method == HttpMethod.HEAD;
+        String ifNoneMatch = getHeader(HttpRequestHeader.IfNoneMatch);
+        if (ifNoneMatch != null) {
+            if (matchesEntityTag(ifNoneMatch, entityTag, true)) {
+                return safe ? HttpStatusCode.NOT_MODIFIED : HttpStatusCode.PRECON_FAILED;
+            }
+        } else if (safe) {
+            long date = HttpDate.INSTANCE.parse(getHeader(HttpRequestHeader.IfModifiedSince));
+            if (date >= 0 && date <= System.currentTimeMillis()
+                    && lastModified / 1000 <= date / 1000) {
+                return HttpStatusCode.NOT_MODIFIED;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the byte ranges of the representation requested with the Range
+     * header, which only applies to GET requests. With an If-Range header, the
+     * ranges are only returned if it has the current entity tag or exactly the
+     * last modified time, so that parts of different versions are not mixed.
+     *
+     * @param entityTag    the quoted, strong entity tag of the representation.
+     * @param lastModified the last modified time of the representation.
+     * @param length       the length of the representation.
+     * @return the satisfiable {@link ByteRange}s, empty if none is satisfiable,
+     *         or null if the whole representation should be sent.
      */
-    public String getParameter(String parameter) {
-        return parameters.get(parameter);
+    public List<ByteRange> getRanges(String entityTag, long lastModified, long length) {
+        String range = getHeader(HttpRequestHeader.Range);
+        if (range == null || method != HttpMethod.GET) {
+            return null;
+        }
+        String ifRange = getHeader(HttpRequestHeader.IfRange);
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // only a strong entity tag can validate a range
+                if (!ifRange.equals(entityTag)) {
+                    return null;
+                }
+            } else if (HttpDate.INSTANCE.parse(ifRange) != lastModified / 1000 * 1000) {
+                return null;
+            }
+        }
+        return ByteRange.parse(range, length);
     }
 
     /**
-     * Parses an HTTP request in three parts: a) decodes the request line,
-     * b) decodes the headers, and c) decodes the parameters (if any).
+     * Checks if an If-Match or If-None-Match header matches an entity tag.
+     * The header is either "*", which matches any current entity, or a list
+     * of quoted entity tags, which may be weak, e.g. W/"xyzzy", "r2d2xxxx".
+     *
+     * @param header    the value of the header.
+     * @param entityTag the quoted, strong entity tag of the target.
+     * @param weak      true for the weak comparison, which ignores the
+     *                  W/ prefix, false for the strong one.
+     * @return true if one of the entity tags matches, false otherwise.
+     */
+    private static boolean matchesEntityTag(String header, String entityTag, boolean weak) {
+        if (header.trim().equals("*")) {
+            return true;
+        }
+        int i = 0;
+        int length = header.length();
+        while (i < length) {
+            char c = header.charAt(i);
+            if (c == ' ' || c == '\t' || c == ',') {
+                i++;
+                continue;
+            }
+            boolean isWeak = header.startsWith("W/", i);
+            if (isWeak) {
+                i += 2;
+            }
+            if (i >= length || header.charAt(i) != '"') {
+                return false;
+            }
+            // the tag itself may contain commas, but not quotes
+            int end = header.indexOf('"', i + 1);
+            if (end < 0) {
+                return false;
+            }
+            if ((weak || !isWeak) && header.regionMatches(i, entityTag, 0, entityTag.length())
+                    && end + 1 - i == entityTag.length()) {
+                return true;
+            }
+            i = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the connection should be kept open after this request,
+     * based on the Connection header and the default of the HTTP version:
+     * HTTP/1.1 connections are persistent unless "close" is requested,
+     * while HTTP/1.0 connections are persistent only if "keep-alive" is requested.
+     *
+     * @return true if the connection should be kept open, false otherwise.
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader(HttpRequestHeader.Connection);
+        if (connection != null) {
+            for (String token : connection.split(",")) {
+                token = token.trim();
+                if (token.equalsIgnoreCase("close")) {
+                    return false;
+                }
+                if (token.equalsIgnoreCase("keep-alive")) {
+                    return true;
+                }
+            }
+        }
+        return httpVersion >= 1.1f;
+    }
+
+    /**
+     * Checks if the client waits for a 100 (Continue) interim response
+     * before sending the body, which has not been sent yet. It is sent
+     * when the body is first read, so a handler accepts the request by
+     * reading its body, or rejects it by answering without reading it.
+     *
+     * @return true if the client waits for 100 (Continue), false otherwise.
+     */
+    public boolean isExpectingContinue() {
+        return expectsContinue && !body.isContinueSent();
+    }
+
+    /**
+     * Sets the {@link OutputStream} of the connection, which the 100 (Continue)
+     * interim response is sent to, if the client expects it.
+     *
+     * @param out the {@link OutputStream} of the connection.
+     */
+    void setContinueStream(OutputStream out) {
+        if (expectsContinue) {
+            body.setContinueStream(out);
+        }
+    }
+
+    /**
+     * Skips the part of the request body that has not been read, so that
+     * the next request of a persistent connection can be read.
+     *
+     * @return true if the body was skipped, false if it is malformed or too
+     *         large, or if it was never asked for with 100 (Continue), in which
+     *         case the connection cannot be used any more.
+     * @throws IOException any exception that might occur.
+     */
+    public boolean skipBody() throws IOException {
+        if (isExpectingContinue()) {
+            // the client may or may not send the body it was not asked for,
+            // so there is no way to tell where the next request starts
+            return false;
+        }
+        try {
+            body.drain();
+            return true;
+        } catch (HttpBodyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses an HTTP request in three parts: a) reads the head of the request,
+     * b) decodes the request line, and c) decodes the headers describing the body.
+     * The body itself (and the parameters in it) is only read when asked for.
      *
      * @throws HttpException any {@link HttpException} that might occur.
      */
     private void parseRequest() throws HttpException {
+        readHead();
         decodeRequestLine();
         decodeHeaders();
-        decodeParameters();
+    }
+
+    /**
+     * Reads the request line and headers into the {@link HttpRequestParser}.
+     *
+     * @throws HttpException any {@link HttpException} that might occur.
+     */
+    private void readHead() throws HttpException {
+        try {
+            if (!parser.parse(in)) {
+                // the connection was closed in the middle of the request
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+        } catch (SocketTimeoutException e) {
+            throw new HttpException(HttpStatusCode.REQUEST_TIMEOUT);
+        } catch (IOException e) {
+            throw new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
+        }
     }
 
     /**
@@ -112,31 +559,13 @@ public class HttpRequest {
      */
     private void decodeRequestLine() throws HttpException {
         // Request-Line = Method SP Request-URI SP HTTP-Version CRLF
-        String requestLine;
-        try {
-            requestLine = reader.readLine();
-        } catch (IOException e) {
-            throw new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
-        }
-
-        if (requestLine == null || requestLine.isEmpty()) {
-            throw new HttpException(HttpStatusCode.BAD_REQUEST);
-        }
-
+        // (the parser has already checked it comprises of these three parts)
         if (logger.isInfoEnabled()) {
-            logger.info(String.format("Request: %s", requestLine));
-        }
-
-        String[] requestParts = requestLine.split(HttpServer.SP);
-
-        // check if we have a valid request which comprises of the three
-        // parts as described above (Request-Line)
-        if (requestParts.length != 3) {
-            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            logger.info(String.format("Request: %s", parser.getRequestLine()));
         }
 
         // try to parse the HTTP method
-        method = HttpMethod.forName(requestParts[0]);
+        method = parser.getMethod();
         if (method == null
                 || method == HttpMethod.PUT
                 || method == HttpMethod.DELETE
@@ -145,11 +574,19 @@ public class HttpRequest {
             throw new HttpException(HttpStatusCode.NOT_IMPLEMENTED);
         }
 
-        // decode the URI using the URLDecoder
-        try {
-            uri = URLDecoder.decode(requestParts[1], "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
+        // split the query string from the path, which is decoded using the
+        // URLDecoder only if there is anything to decode ('+' is only a space
+        // in the query string, so it is kept as is in the path)
+        uri = parser.getPath();
+        query = parser.getQuery();
+        if (parser.pathContains((byte) '%')) {
+            try {
+                uri = URLDecoder.decode(uri.replace("+", "%2B"), "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
+            } catch (IllegalArgumentException e) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
         }
         if (uri.startsWith("../") || uri.endsWith("..")) {
             throw new HttpException(HttpStatusCode.FORBIDDEN);
@@ -161,82 +598,112 @@ public class HttpRequest {
         }
 
         // get the HTTP version
-        if (requestParts[2].equalsIgnoreCase("HTTP/1.1")) {
-            httpVersion = 1.1f;
-        } else {
-            httpVersion = 1f;
-        }
+        httpVersion = parser.getHttpVersion();
     }
 
     /**
-     * Decodes the HTTP request headers and stores them in a {@link Map}.
-     * Header-Field: Header Value.
-     * It only stores supported headers by {@link HttpRequestHeader}.
+     * Decodes the HTTP request headers that are needed up front, which are
+     * the ones describing the body. The rest of the headers stay in the
+     * {@link HttpRequestParser} as offsets and are only turned into Strings
+     * when asked for.
      *
      * @throws HttpException any {@link HttpException} that might occur.
      */
     private void decodeHeaders() throws HttpException {
+        long contentLength = parser.getContentLength();
+        boolean chunked = false;
+        String transferEncoding = parser.getTransferEncoding();
+        if (transferEncoding != null) {
+            // a body with both is ambiguous, which can be used to smuggle requests
+            if (contentLength >= 0) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+            if (!transferEncoding.trim().equalsIgnoreCase("chunked")) {
+                throw new HttpException(HttpStatusCode.NOT_IMPLEMENTED);
+            }
+            chunked = true;
+        }
+
+        // refuse a body that is too large before reading any of it
+        long maxBodySize = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_BODY_MAX);
+        if (contentLength > maxBodySize) {
+            throw new HttpException(HttpStatusCode.ENTITY_TOO_LARGE);
+        }
+
+        // if there is Content-Type but no Content-Length (or chunked body)
+        if ((method == HttpMethod.POST || method == HttpMethod.PUT)
+                && getHeader(HttpRequestHeader.ContentType) != null
+                && contentLength < 0 && !chunked) {
+            throw new HttpException(HttpStatusCode.LENGTH_REQUIRED);
+        }
+
+        body = new HttpBodyInputStream(in, contentLength, chunked, maxBodySize);
+
+        // the only expectation is 100-continue, which HTTP/1.0 clients cannot have
+        String expect = getHeader(HttpRequestHeader.Expect);
+        if (expect != null && httpVersion >= 1.1f) {
+            if (!expect.trim().equalsIgnoreCase("100-continue")) {
+                throw new HttpException(HttpStatusCode.EXPECTATION_FAILED);
+            }
+            expectsContinue = !body.isFinished();
+        }
+    }
+
+    /**
+     * Decodes the parameters of the query string. name=John+Doe&age=25&...
+     *
+     * @throws HttpException {@link HttpStatusCode#BAD_REQUEST} if a parameter
+     *                       cannot be decoded.
+     */
+    private void decodeQueryParameters() throws HttpException {
+        if (query == null) {
+            return;
+        }
         try {
-            String line = reader.readLine().trim();
-            while (line != null && !line.isEmpty()) {
-                // Header-Field: Header Value
-                String[] headerPart = line.split(":", 2);
-                if (headerPart.length != 2) {
-                    throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            int start = 0;
+            while (start <= query.length()) {
+                int end = query.indexOf('&', start);
+                if (end < 0) {
+                    end = query.length();
                 }
-                // check if we support this header and then add it to the headers map
-                HttpRequestHeader header = HttpRequestHeader.forName(headerPart[0].trim());
-                if (header != null) {
-                    headers.put(header, headerPart[1].trim());
+                if (end > start) {
+                    int equals = query.indexOf('=', start);
+                    if (equals < 0 || equals > end) {
+                        // a name without a value, e.g. ?debug
+                        parameters.add(decode(query.substring(start, end)), "");
+                    } else {
+                        parameters.add(decode(query.substring(start, equals)),
+                                decode(query.substring(equals + 1, end)));
+                    }
                 }
-                line = reader.readLine().trim();
+                start = end + 1;
             }
-        } catch (IOException e) {
+        } catch (UnsupportedEncodingException e) {
             throw new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
+        } catch (IllegalArgumentException e) {
+            throw new HttpException(HttpStatusCode.BAD_REQUEST);
         }
     }
 
     /**
-     * Decodes the HTTP request parameters and stores them in a {@link Map}.
-     * name=John+Doe&age=25&...
+     * Decodes the HTTP request parameters from the body and stores them in
+     * the {@link HttpParameters}. name=John+Doe&age=25&...
      * Decoding parameters is only supported for POST and PUT, and for
-     * application/x-www-form-urlencoded encoding.
+     * application/x-www-form-urlencoded and multipart/form-data encodings.
+     * The parameters of a multipart body are its parts that are not files.
      *
      * @throws HttpException any {@link HttpException} that might occur.
      */
     private void decodeParameters() throws HttpException {
         // check if it is a POST/PUT request, where we may have the
         // parameters right after the headers
-        if (method != HttpMethod.POST || method != HttpMethod.PUT) {
+        if (method != HttpMethod.POST && method != HttpMethod.PUT) {
             return;
         }
 
-        String contentType = headers.get(HttpRequestHeader.ContentType);
-        String contentLength = headers.get(HttpRequestHeader.ContentLength);
-
-        // if there is Content-Type but no Content-Length
-        if (contentType != null && (contentLength == null || contentLength.equals("0"))) {
-            throw new HttpException(HttpStatusCode.LENGTH_REQUIRED);
-        }
-
-        // if there is no Content-Length header or it's set to zero,
-        // there is no need to check for parameters
-        if (contentLength == null || contentLength.equalsIgnoreCase("0")) {
-            return;
-        }
-
-        // parse Content-Length to int
-        int contentLengthValue;
-        try {
-            contentLengthValue = Integer.parseInt(contentLength);
-        } catch (NumberFormatException e) {
-            throw new HttpException(HttpStatusCode.BAD_REQUEST);
-        }
-
-        // if there is Content-Length but no Content-Type,
-        // then this is a bad request
+        String contentType = getHeader(HttpRequestHeader.ContentType);
         if (contentType == null) {
-            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            return;
         }
 
         // default encoding is utf-8
@@ -258,33 +725,122 @@ public class HttpRequest {
 
         if (contentType.contains("application/x-www-form-urlencoded")) {
             try {
-                // read the parameters line using the content-length from header
-                char[] buff = new char[contentLengthValue];
-                reader.read(buff);
-                String line = String.valueOf(buff);
-                if (line != null && !line.isEmpty()) {
-                    // name=John+Doe&age=25&...
-                    String[] params = line.split("&");
-                    for (String param : params) {
-                        String[] paramPart = param.split("=", 2);
-                        if (paramPart.length != 2) {
-                            throw new HttpException(HttpStatusCode.BAD_REQUEST);
-                        }
-                        // separate key-value pairs and decode them
-                        String pKey = URLDecoder.decode(paramPart[0], encoding);
-                        String pVal = URLDecoder.decode(paramPart[1], encoding);
-                        // add it to the parameters map
-                        parameters.put(pKey, pVal);
-                    }
-                }
+                decodeFormParameters(encoding);
+            } catch (IllegalArgumentException e) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
             } catch (IOException e) {
-                throw new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
+                throw toHttpException(e);
             }
         } else if (contentType.contains("multipart/form-data")) {
-            // TODO: implement multipart/form-data decoding
-            throw new HttpException(HttpStatusCode.NOT_IMPLEMENTED);
-        } else {
-            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            for (HttpPart part : getParts()) {
+                if (part.getName() != null && part.getFileName() == null) {
+                    try {
+                        parameters.add(part.getName(), part.getString(encoding));
+                    } catch (IOException e) {
+                        throw toHttpException(e);
+                    }
+                }
+            }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Converts an exception that occurred while reading the body to
+     * the {@link HttpException} to answer with.
+     *
+     * @param e the {@link IOException}.
+     * @return the {@link HttpException}.
+     */
+    private static HttpException toHttpException(IOException e) {
+        if (e instanceof HttpBodyException) {
+            return ((HttpBodyException) e).toHttpException();
+        } else if (e instanceof SocketTimeoutException) {
+            return new HttpException(HttpStatusCode.REQUEST_TIMEOUT);
+        } else if (e instanceof UnsupportedEncodingException) {
+            return new HttpException(HttpStatusCode.UNSUPPORTED_TYPE);
+        }
+        return new HttpException(HttpStatusCode.INTERNAL_SERVER_ERROR);
+    }
+
+    /**
+     * Decodes the application/x-www-form-urlencoded parameters while the body
+     * is read, so only one parameter at a time is kept undecoded in memory.
+     *
+     * @param encoding the character encoding of the parameters.
+     * @throws HttpException any {@link HttpException} that might occur.
+     * @throws IOException   any exception reading the body might throw.
+     */
+    private void decodeFormParameters(String encoding)
+            throws HttpException, IOException {
+        byte[] buffer = new byte[4 * 1024];
+        ByteArrayOutputStream token = new ByteArrayOutputStream();
+        String name = null;
+        int bytesRead;
+        while ((bytesRead = body.read(buffer, 0, buffer.length)) >= 0) {
+            for (int i = 0; i < bytesRead; i++) {
+                byte b = buffer[i];
+                if (b == '&') {
+                    addParameter(name, token, encoding);
+                    name = null;
+                } else if (b == '=' && name == null) {
+                    name = decode(token, encoding);
+                } else {
+                    token.write(b);
+                }
+            }
+        }
+        addParameter(name, token, encoding);
+    }
+
+    /**
+     * Adds a decoded parameter to the {@link HttpParameters}.
+     *
+     * @param name     the decoded name of the parameter, null if there was no '='.
+     * @param value    the undecoded value of the parameter, which is reset.
+     * @param encoding the character encoding of the parameter.
+     * @throws HttpException         {@link HttpStatusCode#BAD_REQUEST} if the parameter has no value.
+     * @throws UnsupportedEncodingException if the encoding is not supported.
+     */
+    private void addParameter(String name, ByteArrayOutputStream value, String encoding)
+            throws HttpException, UnsupportedEncodingException {
+        if (name == null) {
+            // ignore empty parameters, e.g. a trailing &
+            if (value.size() > 0) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+            return;
+        }
+        parameters.add(name, decode(value, encoding));
+    }
+
+    /**
+     * Decodes a URL encoded token of the query string as UTF-8, only if
+     * there is anything to decode.
+     *
+     * @param token the undecoded token.
+     * @return the decoded token.
+     * @throws UnsupportedEncodingException if UTF-8 is not supported.
+     */
+    private static String decode(String token) throws UnsupportedEncodingException {
+        if (token.indexOf('%') < 0 && token.indexOf('+') < 0) {
+            return token;
+        }
+        return URLDecoder.decode(token, "UTF-8");
+    }
+
+    /**
+     * Decodes a URL encoded token of the body and resets it.
+     *
+     * @param token    the undecoded token.
+     * @param encoding the character encoding of the token.
+     * @return the decoded token.
+     * @throws UnsupportedEncodingException if the encoding is not supported.
+     */
+    private static String decode(ByteArrayOutputStream token, String encoding)
+            throws UnsupportedEncodingException {
+        String decoded = URLDecoder.decode(
+                new String(token.toByteArray(), StandardCharsets.ISO_8859_1), encoding);
+        token.reset();
+        return decoded;
+    }
+}
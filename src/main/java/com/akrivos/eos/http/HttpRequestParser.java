@@ -0,0 +1,690 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpMethod;
+import com.akrivos.eos.http.constants.HttpRequestHeader;
+import com.akrivos.eos.http.constants.HttpStatusCode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An incremental parser of the request line and headers (the head) of an
+ * HTTP request. The bytes are parsed by a state machine as they arrive, in
+ * as many parts as they happen to be read in, so the same parser serves both
+ * blocking streams and non-blocking channels.
+ * <p/>
+ * The head is kept in a reusable byte buffer and the request line parts and
+ * headers are only recorded as offsets into it. All headers are kept, in the
+ * order they were sent, in a flat array; the ones known as an
+ * {@link HttpRequestHeader} are matched to it straight from their bytes, so
+ * looking them up takes no time at all. Strings are only created
+ * when asked for, so routing a request does not decode any more of it than
+ * it needs. The values returned are only valid until the parser is reset
+ * for the next request of the connection.
+ */
+public class HttpRequestParser {
+    private static final int INITIAL_BUFFER_SIZE = 2 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int INITIAL_HEADERS = 16;
+    private static final int HEADER_FIELDS = 5;
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * The states of the parser.
+     */
+    private enum State {
+        REQUEST_LINE_START,
+        METHOD,
+        URI,
+        VERSION,
+        REQUEST_LINE_LF,
+        HEADER_LINE_START,
+        HEADER_NAME,
+        HEADER_VALUE_START,
+        HEADER_VALUE,
+        HEADER_LINE_LF,
+        HEAD_LF,
+        COMPLETE
+    }
+
+    private byte[] buffer;
+    private int length;
+    private State state;
+    private int lineStart;
+    private int requestLineStart;
+    private int methodEnd;
+    private int uriStart;
+    private int uriEnd;
+    private int queryStart;
+    private int versionStart;
+    private int versionEnd;
+    private final int[] knownHeaders;
+    private int[] headers;
+    private int headerCount;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private HttpMethod method;
+    private String uri;
+
+    /**
+     * Creates a new HttpRequestParser. Its buffer is only
+     * allocated once the first bytes are parsed.
+     */
+    public HttpRequestParser() {
+        headers = new int[INITIAL_HEADERS * HEADER_FIELDS];
+        knownHeaders = new int[HttpRequestHeader.values().length];
+        Arrays.fill(knownHeaders, -1);
+        reset();
+    }
+
+    /**
+     * Resets the parser for the next request, keeping its buffers.
+     */
+    public void reset() {
+        for (int i = 0; i < headerCount; i++) {
+            int known = headers[i * HEADER_FIELDS + 4];
+            if (known >= 0) {
+                knownHeaders[known] = -1;
+            }
+        }
+        length = 0;
+        state = State.REQUEST_LINE_START;
+        lineStart = 0;
+        headerCount = 0;
+        method = null;
+        uri = null;
+    }
+
+    /**
+     * Checks if the head of the request has been parsed.
+     *
+     * @return true if the head is complete, false otherwise.
+     */
+    public boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * Parses the given bytes, up to the end of the head. The bytes
+     * after the head (the body or the next request) are not consumed.
+     *
+     * @param data   the bytes.
+     * @param offset the offset to start parsing from.
+     * @param count  the number of bytes available.
+     * @return the number of bytes consumed.
+     * @throws HttpException {@link HttpStatusCode#BAD_REQUEST} if the head is
+     *                       malformed, or {@link HttpStatusCode#REQ_TOO_LONG}
+     *                       if a line or the whole head is too long.
+     */
+    public int parse(byte[] data, int offset, int count) throws HttpException {
+        if (isComplete() || count <= 0) {
+            return 0;
+        }
+        count = Math.min(count, ensureCapacity(count));
+        System.arraycopy(data, offset, buffer, length, count);
+        int end = advance(length, length + count);
+        int consumed = end - length;
+        length = end;
+        return consumed;
+    }
+
+    /**
+     * Reads and parses the head of a request from a blocking {@link InputStream}.
+     * If the stream supports marking, the bytes are read in bulk straight into
+     * the buffer of the parser and the ones after the head are pushed back;
+     * otherwise they are read one at a time, so nothing after the head is read.
+     *
+     * @param in the {@link InputStream}.
+     * @return true if the head is complete, false if the stream ended before that.
+     * @throws HttpException any {@link HttpException} the parsing might throw.
+     * @throws IOException   any exception reading from the stream might throw.
+     */
+    public boolean parse(InputStream in) throws HttpException, IOException {
+        boolean bulk = in.markSupported();
+        while (!isComplete()) {
+            int space = ensureCapacity(INITIAL_BUFFER_SIZE);
+            int count;
+            if (bulk) {
+                in.mark(space);
+                count = in.read(buffer, length, space);
+            } else {
+                int b = in.read();
+                if (b >= 0) {
+                    buffer[length] = (byte) b;
+                }
+                count = b < 0 ? -1 : 1;
+            }
+            if (count < 0) {
+                return false;
+            }
+            int end = advance(length, length + count);
+            if (bulk && end < length + count) {
+                // give back what belongs to the body or the next request
+                in.reset();
+                long toSkip = end - length;
+                while (toSkip > 0) {
+                    toSkip -= in.skip(toSkip);
+                }
+            }
+            length = end;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the {@link HttpMethod} of the request. Methods are
+     * case-sensitive (RFC 7230, section 3.1.1), so get is not GET.
+     *
+     * @return the {@link HttpMethod} if known, null otherwise.
+     */
+    public HttpMethod getMethod() {
+        if (method == null) {
+            for (HttpMethod value : HttpMethod.values()) {
+                if (equals(requestLineStart, methodEnd, value.name())) {
+                    method = value;
+                    break;
+                }
+            }
+        }
+        return method;
+    }
+
+    /**
+     * Returns the (undecoded) Request-URI, including the query string.
+     *
+     * @return the Request-URI.
+     */
+    public String getUri() {
+        if (uri == null) {
+            uri = new String(buffer, uriStart, uriEnd - uriStart, StandardCharsets.ISO_8859_1);
+        }
+        return uri;
+    }
+
+    /**
+     * Returns the (undecoded) path of the Request-URI, without the query string.
+     *
+     * @return the path.
+     */
+    public String getPath() {
+        if (queryStart < 0) {
+            return getUri();
+        }
+        return new String(buffer, uriStart, queryStart - uriStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the (undecoded) query string of the Request-URI, after the '?'.
+     *
+     * @return the query string, null if there is none.
+     */
+    public String getQuery() {
+        if (queryStart < 0) {
+            return null;
+        }
+        return new String(buffer, queryStart + 1, uriEnd - queryStart - 1,
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Checks if the path of the Request-URI contains the given byte,
+     * without creating a {@link String}.
+     *
+     * @param b the byte.
+     * @return true if the byte is found, false otherwise.
+     */
+    public boolean pathContains(byte b) {
+        int pathEnd = queryStart < 0 ? uriEnd : queryStart;
+        for (int i = uriStart; i < pathEnd; i++) {
+            if (buffer[i] == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the HTTP version of the request, 1.1 for HTTP/1.1
+     * and 1.0 for everything else.
+     *
+     * @return the HTTP version.
+     */
+    public float getHttpVersion() {
+        return equalsIgnoreCase(versionStart, versionEnd, HTTP_1_1) ? 1.1f : 1f;
+    }
+
+    /**
+     * Returns the request line, e.g. for logging.
+     *
+     * @return the request line.
+     */
+    public String getRequestLine() {
+        return new String(buffer, requestLineStart, versionEnd - requestLineStart,
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the number of headers of the request.
+     *
+     * @return the number of headers.
+     */
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * Returns the name of a header.
+     *
+     * @param index the index of the header.
+     * @return the name of the header.
+     */
+    public String getHeaderName(int index) {
+        int i = index * HEADER_FIELDS;
+        return new String(buffer, headers[i], headers[i + 1] - headers[i],
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the value of a header.
+     *
+     * @param index the index of the header.
+     * @return the value of the header.
+     */
+    public String getHeaderValue(int index) {
+        int i = index * HEADER_FIELDS;
+        return new String(buffer, headers[i + 2], headers[i + 3] - headers[i + 2],
+                StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the {@link HttpRequestHeader} a header is known as.
+     *
+     * @param index the index of the header.
+     * @return the {@link HttpRequestHeader} if known, null otherwise.
+     */
+    public HttpRequestHeader getKnownHeader(int index) {
+        int known = headers[index * HEADER_FIELDS + 4];
+        return known < 0 ? null : HttpRequestHeader.values()[known];
+    }
+
+    /**
+     * Checks if the request has a header of the given {@link HttpRequestHeader}.
+     *
+     * @param header the {@link HttpRequestHeader}.
+     * @return true if the header was sent, false otherwise.
+     */
+    public boolean hasHeader(HttpRequestHeader header) {
+        return knownHeaders[header.ordinal()] >= 0;
+    }
+
+    /**
+     * Returns the value of the first header of the given {@link HttpRequestHeader}.
+     *
+     * @param header the {@link HttpRequestHeader}.
+     * @return the value of the header if found, null otherwise.
+     */
+    public String getHeader(HttpRequestHeader header) {
+        int index = knownHeaders[header.ordinal()];
+        return index < 0 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * Returns the value of the first header with the given
+     * name, which is matched case-insensitively.
+     *
+     * @param name the name of the header.
+     * @return the value of the header if found, null otherwise.
+     */
+    public String getHeader(String name) {
+        int index = indexOfHeader(name);
+        return index < 0 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * Finds the first header with the given name, which is matched
+     * case-insensitively, without creating any {@link String}.
+     *
+     * @param name the name of the header.
+     * @return the index of the header if found, -1 otherwise.
+     */
+    public int indexOfHeader(String name) {
+        for (int index = 0; index < headerCount; index++) {
+            int i = index * HEADER_FIELDS;
+            if (equalsIgnoreCase(headers[i], headers[i + 1], name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of the Content-Length header, parsed straight from
+     * the bytes of the head. A repeated Content-Length must have the same
+     * value every time, as picking one of them would frame the request
+     * differently than another hop picking the other, which is how
+     * requests are smuggled (RFC 7230, section 3.3.3).
+     *
+     * @return the Content-Length if found, -1 otherwise.
+     * @throws HttpException {@link HttpStatusCode#BAD_REQUEST} if a value
+     *                       is not a valid length, or the values differ.
+     */
+    public long getContentLength() throws HttpException {
+        int index = knownHeaders[HttpRequestHeader.ContentLength.ordinal()];
+        if (index < 0) {
+            return -1;
+        }
+        long value = parseLength(index);
+        int known = HttpRequestHeader.ContentLength.ordinal();
+        for (int next = index + 1; next < headerCount; next++) {
+            if (headers[next * HEADER_FIELDS + 4] == known && parseLength(next) != value) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value of the Transfer-Encoding header, which may only be
+     * sent once, so that every hop reads the same codings of the body.
+     *
+     * @return the value of the header if found, null otherwise.
+     * @throws HttpException {@link HttpStatusCode#BAD_REQUEST} if it is repeated.
+     */
+    public String getTransferEncoding() throws HttpException {
+        int index = knownHeaders[HttpRequestHeader.TransferEncoding.ordinal()];
+        if (index < 0) {
+            return null;
+        }
+        int known = HttpRequestHeader.TransferEncoding.ordinal();
+        for (int next = index + 1; next < headerCount; next++) {
+            if (headers[next * HEADER_FIELDS + 4] == known) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+        }
+        return getHeaderValue(index);
+    }
+
+    /**
+     * Parses the value of a header as a length, which must only have decimal digits.
+     *
+     * @param index the index of the header.
+     * @return the length.
+     * @throws HttpException {@link HttpStatusCode#BAD_REQUEST}
+     *                       if the value is not a valid length.
+     */
+    private long parseLength(int index) throws HttpException {
+        int i = index * HEADER_FIELDS;
+        int start = headers[i + 2];
+        int end = headers[i + 3];
+        if (start == end || end - start > 18) {
+            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+        }
+        long value = 0;
+        for (int j = start; j < end; j++) {
+            int digit = buffer[j] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new HttpException(HttpStatusCode.BAD_REQUEST);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Runs the state machine over the bytes of the buffer in the given range.
+     *
+     * @param from the index to start from.
+     * @param to   the index to stop at.
+     * @return the index the parsing stopped at, which is
+     *         the end of the head if it has been reached.
+     * @throws HttpException any {@link HttpException} that might occur.
+     */
+    private int advance(int from, int to) throws HttpException {
+        byte[] b = buffer;
+        int i = from;
+        while (i < to) {
+            byte c = b[i];
+            switch (state) {
+                case REQUEST_LINE_START:
+                    // ignore empty lines before the request line
+                    if (c == '\r' || c == '\n') {
+                        lineStart = i + 1;
+                        break;
+                    }
+                    lineStart = i;
+                    requestLineStart = i;
+                    state = State.METHOD;
+                    continue;
+                case METHOD:
+                    if (c == ' ') {
+                        if (i == requestLineStart) {
+                            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                        }
+                        methodEnd = i;
+                        uriStart = i + 1;
+                        queryStart = -1;
+                        state = State.URI;
+                    } else if (c < ' ') {
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    }
+                    break;
+                case URI:
+                    if (c == '?' && queryStart < 0) {
+                        queryStart = i;
+                    } else if (c == ' ') {
+                        if (i == uriStart) {
+                            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                        }
+                        uriEnd = i;
+                        versionStart = i + 1;
+                        state = State.VERSION;
+                    } else if (c < ' ') {
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    }
+                    break;
+                case VERSION:
+                    if (c == '\r' || c == '\n') {
+                        if (i == versionStart) {
+                            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                        }
+                        versionEnd = i;
+                        state = c == '\r' ? State.REQUEST_LINE_LF : State.HEADER_LINE_START;
+                        lineStart = i + 1;
+                    } else if (c <= ' ') {
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    }
+                    break;
+                case REQUEST_LINE_LF:
+                case HEADER_LINE_LF:
+                    if (c != '\n') {
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    }
+                    state = State.HEADER_LINE_START;
+                    lineStart = i + 1;
+                    break;
+                case HEADER_LINE_START:
+                    if (c == '\r') {
+                        state = State.HEAD_LF;
+                    } else if (c == '\n') {
+                        state = State.COMPLETE;
+                        return i + 1;
+                    } else if (c == ' ' || c == '\t' || c == ':') {
+                        // obsolete line folding or a missing header name
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    } else {
+                        nameStart = i;
+                        nameEnd = i + 1;
+                        state = State.HEADER_NAME;
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (c == ':') {
+                        state = State.HEADER_VALUE_START;
+                    } else if (c <= ' ' || c == 0x7f) {
+                        // no whitespace is allowed in the name or before the
+                        // colon (RFC 7230, section 3.2.4), as proxies may tell
+                        // the header apart differently, e.g. Content-Length :
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    } else {
+                        nameEnd = i + 1;
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (c == ' ' || c == '\t') {
+                        break;
+                    }
+                    valueStart = i;
+                    valueEnd = i;
+                    state = State.HEADER_VALUE;
+                    continue;
+                case HEADER_VALUE:
+                    if (c == '\r' || c == '\n') {
+                        addHeader();
+                        state = c == '\r' ? State.HEADER_LINE_LF : State.HEADER_LINE_START;
+                        lineStart = i + 1;
+                    } else if (c != ' ' && c != '\t') {
+                        valueEnd = i + 1;
+                    }
+                    break;
+                case HEAD_LF:
+                    if (c != '\n') {
+                        throw new HttpException(HttpStatusCode.BAD_REQUEST);
+                    }
+                    state = State.COMPLETE;
+                    return i + 1;
+                default:
+                    return i;
+            }
+            i++;
+            if (i - lineStart > MAX_LINE_LENGTH) {
+                throw new HttpException(HttpStatusCode.REQ_TOO_LONG);
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Records the offsets of the header that has just been parsed, along
+     * with the {@link HttpRequestHeader} it is known as (if any).
+     */
+    private void addHeader() {
+        int i = headerCount * HEADER_FIELDS;
+        if (i == headers.length) {
+            int[] grown = new int[headers.length * 2];
+            System.arraycopy(headers, 0, grown, 0, headers.length);
+            headers = grown;
+        }
+        HttpRequestHeader header = HttpRequestHeader.forName(buffer,
+                nameStart, nameEnd - nameStart);
+        int known = header == null ? -1 : header.ordinal();
+        headers[i] = nameStart;
+        headers[i + 1] = nameEnd;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = valueEnd;
+        headers[i + 4] = known;
+        if (known >= 0 && knownHeaders[known] < 0) {
+            knownHeaders[known] = headerCount;
+        }
+        headerCount++;
+    }
+
+    /**
+     * Makes room in the buffer for the given number of bytes,
+     * within the maximum size of the head.
+     *
+     * @param count the number of bytes.
+     * @return the number of bytes there is room for.
+     * @throws HttpException {@link HttpStatusCode#REQ_TOO_LONG}
+     *                       if the head is already at its maximum size.
+     */
+    private int ensureCapacity(int count) throws HttpException {
+        if (length >= MAX_HEAD_SIZE) {
+            throw new HttpException(HttpStatusCode.REQ_TOO_LONG);
+        }
+        if (buffer == null) {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        if (buffer.length - length < count && buffer.length < MAX_HEAD_SIZE) {
+            int size = Math.min(MAX_HEAD_SIZE, Math.max(buffer.length * 2, length + count));
+            byte[] grown = new byte[size];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        return Math.min(count, buffer.length - length);
+    }
+
+    /**
+     * Compares a region of the buffer with an ASCII {@link String}.
+     *
+     * @param start the index the region starts at.
+     * @param end   the index the region ends at.
+     * @param value the ASCII {@link String}.
+     * @return true if they are equal, false otherwise.
+     */
+    private boolean equals(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares (case-insensitive) a region of the buffer with an ASCII {@link String}.
+     *
+     * @param start the index the region starts at.
+     * @param end   the index the region ends at.
+     * @param value the ASCII {@link String}.
+     * @return true if they are equal, false otherwise.
+     */
+    private boolean equalsIgnoreCase(int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (toLowerCase(buffer[start + i]) != toLowerCase((byte) value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares (case-insensitive) a region of the buffer with ASCII bytes.
+     *
+     * @param start the index the region starts at.
+     * @param end   the index the region ends at.
+     * @param value the ASCII bytes.
+     * @return true if they are equal, false otherwise.
+     */
+    private boolean equalsIgnoreCase(int start, int end, byte[] value) {
+        if (end - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (toLowerCase(buffer[start + i]) != toLowerCase(value[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts an ASCII letter to lowercase.
+     *
+     * @param b the byte.
+     * @return the lowercase letter, or the byte itself if it is not an uppercase letter.
+     */
+    private static int toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
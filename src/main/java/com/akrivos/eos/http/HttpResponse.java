@@ -1,28 +1,72 @@
 package com.akrivos.eos.http;
 
+import com.akrivos.eos.http.constants.ConnectionPhase;
+import com.akrivos.eos.http.constants.HttpMethod;
 import com.akrivos.eos.http.constants.HttpResponseHeader;
 import com.akrivos.eos.http.constants.HttpStatusCode;
+import com.akrivos.eos.utils.BufferPool;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TimeZone;
 
 /**
  * A class that holds every information that describes an HTTP response.
  * Includes status code, headers and body. It also provides a method
- * to send the response over an {@link OutputStream}.
+ * to send the response over an {@link OutputStream}. The status line and
+ * headers are put together in a head buffer, which is written at once with
+ * the first part of the body (or when the response is committed). The
+ * response is never flushed, so that the responses of pipelined requests
+ * can be sent together; it is up to the caller to buffer and flush the stream.
  */
 public class HttpResponse {
+    private static final int HEAD_BUFFER_SIZE = 1024;
+    private static final int MAX_HEAD_BUFFER_SIZE = 16 * 1024;
+    private static final int MIN_TRANSFER_SIZE = 32 * 1024;
+    private static final byte[] CRLF = HttpServer.CRLF.getBytes(StandardCharsets.ISO_8859_1);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[][] STATUS_LINES;
+    private static final ThreadLocal<byte[]> headBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[HEAD_BUFFER_SIZE];
+        }
+    };
+
     private final Map<HttpResponseHeader, String> headers;
-    private final DataOutputStream writer;
-    private final SimpleDateFormat df;
+    private final HttpRequest request;
+    private final OutputStream writer;
+    private final FileTransferable transport;
+    private ConnectionInfo info;
+    private byte[] head;
+    private int headLength;
+    private boolean committed;
     private HttpStatusCode statusCode;
+    private int keepAliveTimeout;
+    private int keepAliveMax;
+
+    /**
+     * Encodes the status line of every {@link HttpStatusCode} once.
+     */
+    static {
+        HttpStatusCode[] statusCodes = HttpStatusCode.values();
+        STATUS_LINES = new byte[statusCodes.length][];
+        for (HttpStatusCode statusCode : statusCodes) {
+            // Status-Line = HTTP-Version SP Status-Code SP Reason-Phrase CRLF
+            STATUS_LINES[statusCode.ordinal()] = (HttpServer.HTTP_VERSION
+                    + HttpServer.SP + statusCode.getStatusCode()
+                    + HttpServer.SP + statusCode.getReasonPhrase()
+                    + HttpServer.CRLF).getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
 
     /**
      * Creates a new {@link HttpResponse} with an {@link HttpRequest} and
@@ -30,15 +74,45 @@ public class HttpResponse {
      * to send data to.
      *
      * @param request the {@link HttpRequest} to get information.
-     * @param out     the {@link OutputStream} to send data to.
+     * @param out     the (buffered) {@link OutputStream} to send data to.
      */
     public HttpResponse(HttpRequest request, OutputStream out) {
+        this(request, out, null);
+    }
+
+    /**
+     * Creates a new {@link HttpResponse} with an {@link HttpRequest}, an
+     * {@link OutputStream} from the client's {@link java.net.Socket} to send
+     * data to, and the unbuffered stream underneath it, if it can send files
+     * with zero-copy.
+     *
+     * @param request   the {@link HttpRequest} to get information.
+     * @param out       the (buffered) {@link OutputStream} to send data to.
+     * @param transport the {@link FileTransferable} under the {@link OutputStream}, or null.
+     */
+    public HttpResponse(HttpRequest request, OutputStream out, FileTransferable transport) {
         headers = new HashMap<HttpResponseHeader, String>();
-        writer = new DataOutputStream(new BufferedOutputStream(out));
+        this.request = request;
+        writer = out;
+        this.transport = transport;
+        // taken from the thread until committed, in case of another response
+        head = headBuffers.get();
+        headBuffers.remove();
+        if (request != null) {
+            // a 100 (Continue) is sent if the body of the request is read
+            request.setContinueStream(out);
+        }
+    }
 
-        // RFC 1123 date format
-        df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz");
-        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+    /**
+     * Sets the {@link ConnectionInfo} of the connection, which is moved to the
+     * {@link ConnectionPhase#WRITING} phase once the response is committed.
+     * Until then, the request body is still being read, under its own timeout.
+     *
+     * @param info the {@link ConnectionInfo}.
+     */
+    public void setConnectionInfo(ConnectionInfo info) {
+        this.info = info;
     }
 
     /**
@@ -51,8 +125,18 @@ public class HttpResponse {
     }
 
     /**
-     * Sets the {@link HttpStatusCode} to the given value and sends
-     * the status line to the client's {@link java.net.Socket}.
+     * Returns the encoded status line of the given {@link HttpStatusCode}.
+     *
+     * @param statusCode the {@link HttpStatusCode}.
+     * @return the status line, ending with CRLF.
+     */
+    static byte[] getStatusLine(HttpStatusCode statusCode) {
+        return STATUS_LINES[statusCode.ordinal()];
+    }
+
+    /**
+     * Sets the {@link HttpStatusCode} to the given value and puts
+     * the status line at the start of the head of the response.
      * Status-Line = HTTP-Version SP Status-Code SP Reason-Phrase CRLF.
      *
      * @param statusCode the {@link HttpStatusCode}.
@@ -60,14 +144,8 @@ public class HttpResponse {
      */
     public void writeStatusLine(HttpStatusCode statusCode) throws Exception {
         this.statusCode = statusCode;
-        // Status-Line = HTTP-Version SP Status-Code SP Reason-Phrase CRLF
-        writer.writeBytes(String.format("%s%s%s%s%s%s",
-                HttpServer.HTTP_VERSION,
-                HttpServer.SP,
-                statusCode.getStatusCode(),
-                HttpServer.SP,
-                statusCode.getReasonPhrase(),
-                HttpServer.CRLF));
+        headLength = 0;
+        appendToHead(getStatusLine(statusCode));
     }
 
     /**
@@ -82,19 +160,119 @@ public class HttpResponse {
     }
 
     /**
-     * Adds the {@link HttpResponseHeader} to the {@link Map} and sends
-     * that header value to the client's {@link java.net.Socket}.
+     * Adds the {@link HttpResponseHeader} to the {@link Map} and puts
+     * that header in the head of the response, as encoded by
+     * {@link #toHeaderValue(String)}.
      *
      * @param header the {@link HttpResponseHeader}.
      * @param value  the {@link String} value.
      * @throws Exception any exception that might occur.
      */
     public void writeHeader(HttpResponseHeader header, String value) throws Exception {
+        value = toHeaderValue(value);
         headers.put(header, value);
-        String headerStr = String.format("%s: %s%s",
-                header.getName(), value, HttpServer.CRLF);
-        writer.writeBytes(headerStr);
-        writer.flush();
+        appendToHead(header.getNameBytes());
+        int length = value.length();
+        ensureHeadCapacity(length + CRLF.length);
+        for (int i = 0; i < length; i++) {
+            head[headLength++] = (byte) value.charAt(i);
+        }
+        appendToHead(CRLF);
+    }
+
+    /**
+     * Adds headers that have already been encoded, e.g. the ones of a
+     * cached file, which are put in the head of the response as they are.
+     *
+     * @param values  the {@link HttpResponseHeader}s and their values.
+     * @param encoded the header lines of the values, from {@link #encodeHeaders}.
+     */
+    void writeHeaders(Map<HttpResponseHeader, String> values, byte[] encoded) {
+        headers.putAll(values);
+        appendToHead(encoded);
+    }
+
+    /**
+     * Encodes headers as the lines they are sent as, to be reused
+     * across responses with {@link #writeHeaders}.
+     *
+     * @param values the {@link HttpResponseHeader}s and their values.
+     * @return the encoded header lines.
+     */
+    static byte[] encodeHeaders(Map<HttpResponseHeader, String> values) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (Map.Entry<HttpResponseHeader, String> header : values.entrySet()) {
+            byte[] name = header.getKey().getNameBytes();
+            encoded.write(name, 0, name.length);
+            String value = toHeaderValue(header.getValue());
+            for (int i = 0; i < value.length(); i++) {
+                encoded.write(value.charAt(i));
+            }
+            encoded.write(CRLF, 0, CRLF.length);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Makes a header value safe to send as ISO-8859-1, the charset of the
+     * head. Line breaks are replaced with spaces, so a header cannot be split
+     * in two, and characters outside ISO-8859-1 are percent-encoded as UTF-8,
+     * e.g. in the Location of a file with such a name, as casting them to a
+     * byte would turn them into other characters, e.g. U+010A into a line feed.
+     *
+     * @param value the value of the header.
+     * @return the value, with only ISO-8859-1 characters and no line breaks.
+     */
+    static String toHeaderValue(String value) {
+        StringBuilder encoded = null;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c != '\r' && c != '\n' && c <= 0xff) {
+                if (encoded != null) {
+                    encoded.append(c);
+                }
+                continue;
+            }
+            if (encoded == null) {
+                encoded = new StringBuilder(length + 16);
+                encoded.append(value, 0, i);
+            }
+            if (c == '\r' || c == '\n') {
+                encoded.append(' ');
+                continue;
+            }
+            // keep surrogate pairs together, so they are encoded as one character
+            int end = Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1)) ? i + 2 : i + 1;
+            for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                encoded.append('%').append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+            }
+            i = end - 1;
+        }
+        return encoded == null ? value : encoded.toString();
+    }
+
+    /**
+     * Keeps the connection open after this response, advertising the
+     * given limits in the Keep-Alive header. By default the connection
+     * is closed after the response.
+     *
+     * @param timeout the number of seconds an idle connection is kept open.
+     * @param max     the number of requests still allowed on the connection.
+     */
+    public void setKeepAlive(int timeout, int max) {
+        keepAliveTimeout = timeout;
+        keepAliveMax = max;
+    }
+
+    /**
+     * Checks whether the connection is kept open after this response.
+     *
+     * @return true if the connection is kept open, false otherwise.
+     */
+    public boolean isKeepAlive() {
+        return keepAliveMax > 0;
     }
 
     /**
@@ -104,30 +282,99 @@ public class HttpResponse {
      * @throws Exception any exception that might occur.
      */
     public void writeLastModified(Date date) throws Exception {
-        writeHeader(HttpResponseHeader.LastModified, df.format(date));
+        writeLastModified(date.getTime());
+    }
+
+    /**
+     * Writes the Last-Modified header using the RFC 1123 format.
+     *
+     * @param lastModified the last modified time in milliseconds since the epoch.
+     * @throws Exception any exception that might occur.
+     */
+    public void writeLastModified(long lastModified) throws Exception {
+        writeHeader(HttpResponseHeader.LastModified, HttpDate.INSTANCE.format(lastModified));
     }
 
     /**
      * Writes the final {@link HttpResponseHeader}s, ending the headers section.
+     * These include the Connection and Keep-Alive headers, telling the client
+     * whether the connection is kept open after this response, which it is not
+     * if the request body was never asked for with 100 (Continue). The head is
+     * written with the first part of the body, or when the response is committed.
      *
      * @throws Exception any exception that might occur.
      */
     public void writeFinalHeaders() throws Exception {
-        writeHeader(HttpResponseHeader.Date, df.format(new Date()));
+        if (request != null && request.isExpectingContinue()) {
+            // the client may or may not send the body it was not asked for
+            // with 100 (Continue), so the connection cannot be reused
+            keepAliveMax = 0;
+        }
+        if (isKeepAlive()) {
+            // HTTP/1.1 connections are persistent by default
+            if (request.getHttpVersion() < 1.1f) {
+                writeHeader(HttpResponseHeader.Connection, "keep-alive");
+            }
+            writeHeader(HttpResponseHeader.KeepAlive,
+                    "timeout=" + keepAliveTimeout + ", max=" + keepAliveMax);
+        } else {
+            writeHeader(HttpResponseHeader.Connection, "close");
+        }
+        // the current date is only formatted once per second
+        headers.put(HttpResponseHeader.Date, HttpDate.INSTANCE.getCurrentDate());
+        appendToHead(HttpResponseHeader.Date.getNameBytes());
+        appendToHead(HttpDate.INSTANCE.getCurrentDateBytes());
+        appendToHead(CRLF);
         writeHeader(HttpResponseHeader.Server, HttpServer.SERVER_NAME);
-        writer.writeBytes(HttpServer.CRLF);
-        writer.flush();
+        appendToHead(CRLF);
+    }
+
+    /**
+     * Writes the head of the response, if it has not been written together
+     * with the body, e.g. for responses without a body. Nothing can be added
+     * to the head afterwards.
+     *
+     * @throws IOException any exception that might occur.
+     */
+    public void commit() throws IOException {
+        if (!committed) {
+            committed = true;
+            if (info != null) {
+                info.setPhase(ConnectionPhase.WRITING);
+            }
+            writer.write(head, 0, headLength);
+            releaseHead();
+        }
     }
 
     /**
-     * Writes the body data from a {@link String}.
+     * Checks whether the head of the response has been written.
+     *
+     * @return true if the head has been written, false otherwise.
+     */
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * Checks whether the response has a body to send. Responses to HEAD
+     * requests only have headers, but they still describe the body.
+     *
+     * @return true if the body should be sent, false otherwise.
+     */
+    public boolean hasBody() {
+        return request == null || request.getMethod() != HttpMethod.HEAD;
+    }
+
+    /**
+     * Writes the body data from a {@link String}, encoded in UTF-8.
      *
      * @param body the body data in {@link String}.
      * @throws Exception any exception that might occur.
      */
     public void writeBody(String body) throws IOException {
-        writer.writeBytes(body);
-        writer.flush();
+        byte[] bytes = body.getBytes("UTF-8");
+        writeBody(bytes, 0, bytes.length);
     }
 
     /**
@@ -140,7 +387,132 @@ public class HttpResponse {
      * @throws IOException any exception that might occur.
      */
     public void writeBody(byte[] buffer, int offset, int length) throws IOException {
+        if (!hasBody()) {
+            return;
+        }
+        if (!committed && headLength + length <= MAX_HEAD_BUFFER_SIZE) {
+            // send the head and the first part of the body in one write
+            ensureHeadCapacity(length);
+            System.arraycopy(buffer, offset, head, headLength, length);
+            headLength += length;
+            commit();
+            return;
+        }
+        commit();
         writer.write(buffer, offset, length);
-        writer.flush();
+    }
+
+    /**
+     * Writes the body data from part of a file. Large parts are sent with
+     * zero-copy, if the connection supports it, after the head (and whatever
+     * else is buffered) is flushed. Otherwise, the file is copied through a
+     * large pooled buffer.
+     *
+     * @param file     the {@link FileChannel} of the file.
+     * @param position the position in the file to start from.
+     * @param count    the number of bytes to write.
+     * @throws IOException any exception that might occur, or an {@link EOFException}
+     *                     if the file is shorter than expected.
+     */
+    public void writeBody(FileChannel file, long position, long count) throws IOException {
+        if (!hasBody()) {
+            return;
+        }
+        if (transport != null && count >= MIN_TRANSFER_SIZE) {
+            commit();
+            writer.flush();
+            if (transport.transferFrom(file, position, count) < count) {
+                throw new EOFException("The file was truncated while being sent");
+            }
+            return;
+        }
+        byte[] buffer = BufferPool.INSTANCE.acquire();
+        try {
+            while (count > 0) {
+                int bytesRead = file.read(ByteBuffer.wrap(buffer, 0,
+                        (int) Math.min(buffer.length, count)), position);
+                if (bytesRead < 0) {
+                    throw new EOFException("The file was truncated while being sent");
+                }
+                writeBody(buffer, 0, bytesRead);
+                position += bytesRead;
+                count -= bytesRead;
+            }
+        } finally {
+            BufferPool.INSTANCE.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the body data from the remaining bytes of a buffer, e.g. a file
+     * mapped in memory. A small body is sent together with the head, while a
+     * larger one is sent straight from the buffer, if the connection supports
+     * it, or copied through a large pooled buffer.
+     *
+     * @param buffer the {@link ByteBuffer}.
+     * @throws IOException any exception that might occur.
+     */
+    public void writeBody(ByteBuffer buffer) throws IOException {
+        if (!hasBody()) {
+            return;
+        }
+        int length = buffer.remaining();
+        if (!committed && headLength + length <= MAX_HEAD_BUFFER_SIZE) {
+            ensureHeadCapacity(length);
+            buffer.get(head, headLength, length);
+            headLength += length;
+            commit();
+        } else if (transport != null) {
+            commit();
+            writer.flush();
+            transport.transferFrom(buffer);
+        } else {
+            byte[] bytes = BufferPool.INSTANCE.acquire();
+            try {
+                while (buffer.hasRemaining()) {
+                    int count = Math.min(bytes.length, buffer.remaining());
+                    buffer.get(bytes, 0, count);
+                    writeBody(bytes, 0, count);
+                }
+            } finally {
+                BufferPool.INSTANCE.release(bytes);
+            }
+        }
+    }
+
+    /**
+     * Appends bytes to the head of the response.
+     *
+     * @param bytes the bytes.
+     */
+    private void appendToHead(byte[] bytes) {
+        ensureHeadCapacity(bytes.length);
+        System.arraycopy(bytes, 0, head, headLength, bytes.length);
+        headLength += bytes.length;
+    }
+
+    /**
+     * Grows the head buffer, if needed, to fit the given number of bytes.
+     *
+     * @param count the number of bytes to fit.
+     */
+    private void ensureHeadCapacity(int count) {
+        if (committed) {
+            throw new IllegalStateException("The response head has already been written");
+        }
+        if (headLength + count > head.length) {
+            head = Arrays.copyOf(head, Math.max(head.length * 2, headLength + count));
+        }
+    }
+
+    /**
+     * Gives the head buffer back to the thread for its next response,
+     * unless it has grown too large to keep around.
+     */
+    private void releaseHead() {
+        if (head.length <= MAX_HEAD_BUFFER_SIZE) {
+            headBuffers.set(head);
+        }
+        head = null;
     }
 }
\ No newline at end of file
@@ -1,13 +1,22 @@
 package com.akrivos.eos.http;
 
 import com.akrivos.eos.*;
+import com.akrivos.eos.config.Settings;
+import com.akrivos.eos.http.constants.ConnectionPhase;
+import org.apache.log4j.Logger;
 
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation of a {@link Server} for an HTTP Server.
  */
 public class HttpServer implements Server {
+    private static final Logger logger = Logger.getLogger(HttpServer.class);
+    private static final long DRAIN_CHECK_INTERVAL = 100;
+    private static final long MIN_TERMINATION_WAIT = 1000;
+
     public static final String SERVER_NAME = "EOS/0.1";
     public static final String HTTP_VERSION = "HTTP/1.1";
     public static final String CRLF = "\r\n";
@@ -16,12 +25,22 @@ public class HttpServer implements Server {
     private final ThreadPool threadPool;
     private Connector[] connectors;
     private Handler handler;
+    private volatile boolean running;
 
     /**
      * Creates a new HttpServer and its {@link ThreadPool}.
      */
     public HttpServer() {
-        threadPool = new ServerThreadPool();
+        this(new ServerThreadPool());
+    }
+
+    /**
+     * Creates a new HttpServer with the given {@link ThreadPool}.
+     *
+     * @param threadPool the {@link ThreadPool} to handle the requests.
+     */
+    public HttpServer(ThreadPool threadPool) {
+        this.threadPool = threadPool;
     }
 
     /**
@@ -29,6 +48,7 @@ public class HttpServer implements Server {
      */
     @Override
     public void start() throws Exception {
+        running = true;
         if (connectors != null) {
             for (Connector c : connectors) {
                 c.start();
@@ -37,15 +57,83 @@ public class HttpServer implements Server {
     }
 
     /**
+     * Stops the server gracefully. The connectors stop accepting new
+     * connections, the requests in progress are answered as the last ones of
+     * their connections, and idle persistent connections are closed, until
+     * all connections are drained or the shutdown timeout expires. Then the
+     * remaining connections are closed and the {@link ThreadPool} shuts down.
+     *
      * @see Server#stop()
      */
     @Override
     public void stop() throws Exception {
+        if (!running) {
+            return;
+        }
+        running = false;
+        long deadline = System.currentTimeMillis() + 1000L
+                * Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_SHUTDOWN_TIMEOUT);
         if (connectors != null) {
+            for (Connector c : connectors) {
+                c.stopAccepting();
+            }
+            drain(deadline);
             for (Connector c : connectors) {
                 c.stop();
             }
         }
+        threadPool.shutdown();
+        long wait = Math.max(deadline - System.currentTimeMillis(), MIN_TERMINATION_WAIT);
+        if (!threadPool.awaitTermination(wait, TimeUnit.MILLISECONDS)) {
+            logger.warn("Interrupting the requests still running after the shutdown timeout");
+            threadPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until the connections of the connectors have been drained or the
+     * deadline has passed, closing the persistent connections as soon as they
+     * become idle. Connections that have not sent their first request yet
+     * are given the chance to, as they have already been accepted.
+     *
+     * @param deadline the time in milliseconds to stop waiting at.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void drain(long deadline) throws InterruptedException {
+        while (true) {
+            int active = 0;
+            for (Connector c : connectors) {
+                for (ConnectionInfo info : ConnectionRegistry.INSTANCE.getConnections(c)) {
+                    if (info.getPhase() == ConnectionPhase.IDLE && info.getRequests() > 0) {
+                        try {
+                            info.close();
+                        } catch (Exception e) {
+                            logger.error("Error while closing the connection from "
+                                    + info.getRemoteAddress(), e);
+                        }
+                    } else {
+                        active++;
+                    }
+                }
+            }
+            if (active == 0) {
+                return;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                logger.warn("Closing " + active + " connection(s) still active"
+                        + " after the shutdown timeout");
+                return;
+            }
+            Thread.sleep(DRAIN_CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * @see Server#isRunning()
+     */
+    @Override
+    public boolean isRunning() {
+        return running;
     }
 
     /**
@@ -84,10 +172,8 @@ public class HttpServer implements Server {
      * @see Server#handle(Socket)
      */
     @Override
-    public void handle(Socket socket) throws Exception {
-        if (handler != null) {
-            handler.handle(socket);
-        }
+    public boolean handle(Socket socket) throws Exception {
+        return handler != null && handler.handle(socket);
     }
 
     /**
@@ -97,4 +183,29 @@ public class HttpServer implements Server {
     public boolean enqueueTask(Runnable task) throws Exception {
         return threadPool.enqueueTask(task);
     }
+
+    /**
+     * @see ThreadPool#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+
+    /**
+     * @see ThreadPool#shutdownNow()
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        return threadPool.shutdownNow();
+    }
+
+    /**
+     * @see ThreadPool#awaitTermination(long, TimeUnit)
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return threadPool.awaitTermination(timeout, unit);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.config.Settings;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A singleton enum keeping the hot files, the ones requested again and again,
+ * mapped in memory with {@link FileChannel#map}, so that they are served
+ * without opening, reading and closing them for every request. A file is
+ * mapped on its second request, if it is not larger than server.mmap.size,
+ * and at most server.mmap.files files are kept mapped, dropping the least
+ * recently used ones. A mapping is checked against its file at most once per
+ * second, and dropped once the file changes. Dropped mappings are unmapped
+ * when they are garbage collected, as there is no way to unmap them safely
+ * while another request may still be sending them.
+ */
+public enum MappedFileCache {
+    INSTANCE;
+
+    private static final Logger logger = Logger.getLogger(MappedFileCache.class);
+    private static final long CHECK_INTERVAL = 1000;
+    private static final int HOT_REQUESTS = 2;
+
+    private final ConcurrentHashMap<String, MappedFile> files;
+    private final ConcurrentHashMap<String, AtomicInteger> candidates;
+    private final long maxFileSize;
+    private final int maxFiles;
+
+    /**
+     * Initialises the singleton instance.
+     */
+    private MappedFileCache() {
+        maxFileSize = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_MMAP_SIZE);
+        maxFiles = Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_MMAP_FILES);
+        files = new ConcurrentHashMap<String, MappedFile>(Math.max(16, maxFiles * 2));
+        candidates = new ConcurrentHashMap<String, AtomicInteger>();
+    }
+
+    /**
+     * Returns the mapping of the given file, mapping it if it has become
+     * hot, or null if it is not (yet) mapped.
+     *
+     * @param file the (canonical) {@link File}.
+     * @return the {@link MappedFile}, or null if the file is not mapped.
+     */
+    public MappedFile get(File file) {
+        if (maxFileSize <= 0 || maxFiles <= 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        String path = file.getPath();
+        MappedFile mapped = files.get(path);
+        if (mapped != null) {
+            if (now - mapped.checkedAt < CHECK_INTERVAL || mapped.isUpToDate(file, now)) {
+                mapped.lastAccess = now;
+                return mapped;
+            }
+            files.remove(path, mapped);
+        }
+        long length = file.length();
+        if (length == 0 || length > maxFileSize || !isHot(path)) {
+            return null;
+        }
+        return map(file, path, now);
+    }
+
+    /**
+     * Drops the mapping of the given file, e.g. after it could not be sent.
+     *
+     * @param file the (canonical) {@link File}.
+     */
+    public void invalidate(File file) {
+        files.remove(file.getPath());
+    }
+
+    /**
+     * Returns the number of mapped files.
+     *
+     * @return the number of mapped files.
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Counts a request of a file that is not mapped and checks if it has
+     * been requested enough times to be mapped. The counts are forgotten
+     * every now and then, so that only the files requested often are mapped.
+     *
+     * @param path the path of the file.
+     * @return true if the file is hot, false otherwise.
+     */
+    private boolean isHot(String path) {
+        AtomicInteger requests = candidates.get(path);
+        if (requests == null) {
+            if (candidates.size() >= maxFiles * 4) {
+                candidates.clear();
+            }
+            requests = candidates.putIfAbsent(path, new AtomicInteger(1));
+            if (requests == null) {
+                return false;
+            }
+        }
+        if (requests.incrementAndGet() < HOT_REQUESTS) {
+            return false;
+        }
+        candidates.remove(path);
+        return true;
+    }
+
+    /**
+     * Maps a file and adds it to the mapped files, dropping the least
+     * recently used one if there are too many.
+     *
+     * @param file the {@link File}.
+     * @param path the path of the file.
+     * @param now  the current time.
+     * @return the {@link MappedFile}, or null if the file could not be mapped.
+     */
+    private MappedFile map(File file, String path, long now) {
+        MappedFile mapped;
+        try {
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                long lastModified = file.lastModified();
+                long length = channel.size();
+                if (length == 0 || length > maxFileSize) {
+                    return null;
+                }
+                mapped = new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, length),
+                        length, lastModified, now);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not map " + path + ": " + e.getMessage());
+            }
+            return null;
+        }
+        MappedFile existing = files.putIfAbsent(path, mapped);
+        if (existing != null) {
+            // mapped by another request at the same time
+            return existing;
+        }
+        if (files.size() > maxFiles) {
+            evictLeastRecentlyUsed(path);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Mapped " + path + " (" + mapped.length + " bytes)");
+        }
+        return mapped;
+    }
+
+    /**
+     * Drops the least recently used mapping, other than the given one. The
+     * mapped files are few, so finding it is cheaper than keeping them ordered
+     * on every request.
+     *
+     * @param keep the path of the mapping to keep.
+     */
+    private void evictLeastRecentlyUsed(String keep) {
+        String eldest = null;
+        long eldestAccess = Long.MAX_VALUE;
+        for (Map.Entry<String, MappedFile> entry : files.entrySet()) {
+            if (entry.getValue().lastAccess < eldestAccess && !entry.getKey().equals(keep)) {
+                eldest = entry.getKey();
+                eldestAccess = entry.getValue().lastAccess;
+            }
+        }
+        if (eldest != null) {
+            files.remove(eldest);
+        }
+    }
+
+    /**
+     * A file mapped in memory, along with the length and last modified time
+     * it had when it was mapped, which are the ones to send with it.
+     */
+    public static final class MappedFile {
+        private final MappedByteBuffer buffer;
+        private final long length;
+        private final long lastModified;
+        private volatile long checkedAt;
+        private volatile long lastAccess;
+
+        /**
+         * Creates a new MappedFile.
+         *
+         * @param buffer       the {@link MappedByteBuffer}.
+         * @param length       the length of the file.
+         * @param lastModified the last modified time of the file.
+         * @param now          the current time.
+         */
+        private MappedFile(MappedByteBuffer buffer, long length, long lastModified, long now) {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+            checkedAt = now;
+            lastAccess = now;
+        }
+
+        /**
+         * Returns a new view of the contents of the file, so that
+         * every request has its own position in the mapping.
+         *
+         * @return a read-only {@link ByteBuffer} of the whole file.
+         */
+        public ByteBuffer getContents() {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        /**
+         * Returns the length of the file.
+         *
+         * @return the length of the file.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the last modified time of the file.
+         *
+         * @return the last modified time in milliseconds since the epoch.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Checks if the file has changed since it was mapped.
+         *
+         * @param file the {@link File}.
+         * @param now  the current time.
+         * @return true if the file has not changed, false otherwise.
+         */
+        private boolean isUpToDate(File file, long now) {
+            if (file.lastModified() != lastModified || file.length() != length) {
+                return false;
+            }
+            checkedAt = now;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpStatusCode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A streaming parser of multipart/form-data request bodies (RFC 7578),
+ * which reads one {@link HttpPart} at a time through a fixed size buffer.
+ * The boundaries are found with the Boyer-Moore-Horspool algorithm, which
+ * skips over most of the content without comparing every byte, and the
+ * content is handed to the part as soon as it is known not to be the start
+ * of a boundary, so memory use does not depend on the size of the upload.
+ */
+public class MultipartParser {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_BOUNDARY_LENGTH = 70;
+    private static final int MAX_PART_HEAD_SIZE = 8 * 1024;
+
+    private final InputStream in;
+    private final int threshold;
+    private final byte[] delimiter;
+    private final int[] shift;
+    private final byte[] buffer;
+    private final StringBuilder line;
+    private int position;
+    private int limit;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * Creates a new {@link MultipartParser}.
+     *
+     * @param in        the {@link InputStream} of the body.
+     * @param boundary  the boundary of the parts, from the Content-Type.
+     * @param threshold the size in bytes above which parts are spilled to disk.
+     * @throws HttpException {@link HttpStatusCode#BAD_REQUEST} if the boundary is not valid.
+     */
+    public MultipartParser(InputStream in, String boundary, int threshold)
+            throws HttpException {
+        if (boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+            throw new HttpException(HttpStatusCode.BAD_REQUEST);
+        }
+        this.in = in;
+        this.threshold = threshold;
+        delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        shift = new int[256];
+        for (int i = 0; i < shift.length; i++) {
+            shift[i] = delimiter.length;
+        }
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            shift[delimiter[i] & 0xff] = delimiter.length - 1 - i;
+        }
+        buffer = new byte[BUFFER_SIZE];
+        line = new StringBuilder();
+        // the first boundary is not preceded by a CRLF
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Reads the next part of the body. Its content is read completely,
+     * so the part can be used after reading the ones that follow it.
+     *
+     * @return the next {@link HttpPart}, or null if there are no more parts.
+     * @throws IOException {@link HttpBodyException} if the body is malformed,
+     *                     or any other exception that might occur.
+     */
+    public HttpPart nextPart() throws IOException {
+        if (!started) {
+            started = true;
+            // skip the preamble
+            readContent(null);
+            finished = readDelimiterEnd();
+        }
+        if (finished) {
+            return null;
+        }
+        HttpPart part = readPartHead();
+        try {
+            readContent(part);
+            finished = readDelimiterEnd();
+        } catch (IOException e) {
+            part.delete();
+            throw e;
+        } finally {
+            part.finish();
+        }
+        return part;
+    }
+
+    /**
+     * Reads the content up to the next delimiter, passing it to the part.
+     *
+     * @param part the {@link HttpPart} to write to, null to discard the content.
+     * @throws IOException any exception that might occur.
+     */
+    private void readContent(HttpPart part) throws IOException {
+        while (true) {
+            int index = indexOfDelimiter();
+            if (index >= 0) {
+                if (part != null) {
+                    part.write(buffer, position, index - position);
+                }
+                position = index + delimiter.length;
+                return;
+            }
+            // everything but a possible start of the delimiter is content
+            int safe = limit - delimiter.length + 1;
+            if (safe > position) {
+                if (part != null) {
+                    part.write(buffer, position, safe - position);
+                }
+                position = safe;
+            }
+            if (!fill()) {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+        }
+    }
+
+    /**
+     * Finds the delimiter in the buffer using Boyer-Moore-Horspool.
+     *
+     * @return the index of the delimiter, -1 if not found.
+     */
+    private int indexOfDelimiter() {
+        int last = delimiter.length - 1;
+        int i = position;
+        while (i <= limit - delimiter.length) {
+            int j = last;
+            while (buffer[i + j] == delimiter[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += shift[buffer[i + last] & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * Reads what follows a delimiter, which is either "--" for the last
+     * one, or the line break before the head of the next part.
+     *
+     * @return true if it was the last delimiter, false otherwise.
+     * @throws IOException any exception that might occur.
+     */
+    private boolean readDelimiterEnd() throws IOException {
+        CharSequence rest = readLine(MAX_PART_HEAD_SIZE);
+        if (rest.length() >= 2 && rest.charAt(0) == '-' && rest.charAt(1) == '-') {
+            return true;
+        }
+        // only (deprecated) transport padding may follow the boundary
+        for (int i = 0; i < rest.length(); i++) {
+            if (rest.charAt(i) != ' ' && rest.charAt(i) != '\t') {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the headers of the next part and creates it.
+     *
+     * @return the {@link HttpPart}.
+     * @throws IOException any exception that might occur.
+     */
+    private HttpPart readPartHead() throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        int headSize = 0;
+        CharSequence header;
+        while ((header = readLine(MAX_PART_HEAD_SIZE - headSize)).length() > 0) {
+            headSize += header.length() + 2;
+            String headerLine = header.toString();
+            int colon = headerLine.indexOf(':');
+            if (colon <= 0) {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+            headers.put(headerLine.substring(0, colon).trim(),
+                    headerLine.substring(colon + 1).trim());
+        }
+        String disposition = headers.get("Content-Disposition");
+        String name = null;
+        String fileName = null;
+        if (disposition != null) {
+            name = getDispositionParameter(disposition, "name");
+            fileName = getDispositionParameter(disposition, "filename");
+        }
+        return new HttpPart(headers, name, fileName, threshold);
+    }
+
+    /**
+     * Returns a parameter of a Content-Disposition header, which may be quoted.
+     * form-data; name="field"; filename="file.txt"
+     *
+     * @param disposition the value of the Content-Disposition header.
+     * @param parameter   the name of the parameter.
+     * @return the value of the parameter if found, null otherwise.
+     */
+    private static String getDispositionParameter(String disposition, String parameter) {
+        int i = disposition.indexOf(';');
+        while (i >= 0 && i < disposition.length()) {
+            int start = i + 1;
+            while (start < disposition.length() && disposition.charAt(start) == ' ') {
+                start++;
+            }
+            int equals = disposition.indexOf('=', start);
+            if (equals < 0) {
+                return null;
+            }
+            String key = disposition.substring(start, equals).trim();
+            int end;
+            String value;
+            if (equals + 1 < disposition.length() && disposition.charAt(equals + 1) == '"') {
+                end = disposition.indexOf('"', equals + 2);
+                if (end < 0) {
+                    end = disposition.length();
+                }
+                value = disposition.substring(equals + 2, end);
+                end = disposition.indexOf(';', end);
+            } else {
+                end = disposition.indexOf(';', equals);
+                value = disposition.substring(equals + 1,
+                        end < 0 ? disposition.length() : end).trim();
+            }
+            if (key.equalsIgnoreCase(parameter)) {
+                return value;
+            }
+            i = end;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a line terminated by CRLF (or LF), as ISO-8859-1.
+     *
+     * @param maxLength the maximum length of the line.
+     * @return the line without its terminator.
+     * @throws IOException {@link HttpBodyException} if the line is too long,
+     *                     or any other exception that might occur.
+     */
+    private CharSequence readLine(int maxLength) throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+            int b = buffer[position++] & 0xff;
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line;
+            }
+            if (line.length() >= maxLength) {
+                throw new HttpBodyException(HttpStatusCode.BAD_REQUEST);
+            }
+            line.append((char) b);
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more.
+     *
+     * @return true if more bytes were read, false at the end of the body.
+     * @throws IOException any exception that might occur.
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        int bytesRead;
+        try {
+            bytesRead = in.read(buffer, limit, buffer.length - limit);
+        } catch (EOFException e) {
+            return false;
+        }
+        if (bytesRead < 0) {
+            return false;
+        }
+        limit += bytesRead;
+        return true;
+    }
+}
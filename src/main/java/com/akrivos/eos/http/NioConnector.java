@@ -0,0 +1,884 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.Connector;
+import com.akrivos.eos.Server;
+import com.akrivos.eos.config.Settings;
+import com.akrivos.eos.http.constants.ConnectionPhase;
+import com.akrivos.eos.http.constants.HttpRequestHeader;
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An implementation of a {@link Connector} based on non-blocking I/O. A small,
+ * fixed number of {@link Selector} threads accept connections and read the
+ * requests from them. Only when a request has been fully read, it is enqueued
+ * to the server's {@link com.akrivos.eos.ThreadPool} to be handled, so idle
+ * and slow clients do not keep any of the pool's threads busy.
+ */
+public class NioConnector implements Connector {
+    private static final Logger logger = Logger.getLogger(NioConnector.class);
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_REQUEST_SIZE = 64 * 1024;
+    private static final long AWAIT_CHECK_INTERVAL = 1000;
+
+    private final int selectors;
+    private final int keepAliveMax;
+    private final int pipelineDepth;
+    private final long maxBodySize;
+    private final AdmissionControl admission;
+    private SelectorLoop[] loops;
+    private int nextLoop;
+    private ServerSocketChannel serverChannel;
+    private Server server;
+    private String address;
+    private int port;
+
+    /**
+     * Creates a new NioConnector with the specified number of selector threads.
+     *
+     * @param selectors the number of selector threads.
+     */
+    public NioConnector(int selectors) {
+        this.selectors = selectors;
+        keepAliveMax = Settings.INSTANCE.getValueAsIntegerFor(
+                Settings.SERVER_KEEPALIVE_MAX);
+        pipelineDepth = Settings.INSTANCE.getValueAsIntegerFor(
+                Settings.SERVER_PIPELINE_DEPTH);
+        maxBodySize = Settings.INSTANCE.getValueAsIntegerFor(
+                Settings.SERVER_BODY_MAX);
+        admission = new AdmissionControl();
+    }
+
+    /**
+     * Starts the {@link NioConnector} by binding a non-blocking
+     * {@link ServerSocketChannel} and spawning the selector threads.
+     * The first selector thread also accepts the connections, which are then
+     * spread across all the selector threads in a round-robin fashion.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Override
+    public void start() throws Exception {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(new InetSocketAddress(address, port));
+
+        loops = new SelectorLoop[selectors];
+        for (int i = 0; i < selectors; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+        }
+        loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, null);
+        for (int i = 0; i < selectors; i++) {
+            new Thread(loops[i], "eos-selector-" + i).start();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Waiting for connections using " + selectors
+                    + " selector thread(s)...");
+        }
+    }
+
+    /**
+     * Stops accepting new connections by closing the {@link ServerSocketChannel}
+     * on the selector thread it is registered to.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Override
+    public void stopAccepting() throws Exception {
+        if (loops == null) {
+            return;
+        }
+        loops[0].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serverChannel.close();
+                } catch (IOException e) {
+                    logger.error("Error while closing the server channel", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the {@link NioConnector} by closing the {@link ServerSocketChannel}
+     * and the selectors, along with all the connections registered to them
+     * or still being handled.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Override
+    public void stop() throws Exception {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (loops != null) {
+            for (SelectorLoop loop : loops) {
+                loop.stop();
+            }
+        }
+        ConnectionRegistry.INSTANCE.closeAll(this);
+    }
+
+    /**
+     * @see Connector#getServer()
+     */
+    @Override
+    public Server getServer() {
+        return server;
+    }
+
+    /**
+     * @see Connector#setServer(Server)
+     */
+    @Override
+    public void setServer(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * @see Connector#getAddress()
+     */
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @see Connector#setAddress(String)
+     */
+    @Override
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    /**
+     * @see Connector#getPort()
+     */
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @see Connector#setPort(int)
+     */
+    @Override
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Returns the next {@link SelectorLoop} to register a connection to.
+     *
+     * @return the next {@link SelectorLoop}.
+     */
+    private SelectorLoop nextLoop() {
+        SelectorLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+
+    /**
+     * Adds a {@link ChannelConnection} with complete requests to the server's
+     * {@link com.akrivos.eos.ThreadPool}, rejecting it with a
+     * 503 Service Unavailable if the queue is full.
+     *
+     * @param connection the {@link ChannelConnection}.
+     */
+    private void dispatch(ChannelConnection connection) {
+        try {
+            if (admission.tryEnqueue()) {
+                if (server.enqueueTask(connection)) {
+                    return;
+                }
+                admission.dequeued();
+            }
+        } catch (Exception e) {
+            logger.error("Could not enqueue the connection", e);
+        }
+        connection.reject();
+    }
+
+    /**
+     * A selector thread, accepting connections and reading requests
+     * from the channels registered to its {@link Selector}.
+     */
+    private class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> pendingTasks;
+        private final ByteBuffer readBuffer;
+        private volatile boolean running;
+
+        /**
+         * Creates a new SelectorLoop with the given {@link Selector}.
+         *
+         * @param selector the {@link Selector}.
+         */
+        public SelectorLoop(Selector selector) {
+            this.selector = selector;
+            pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            running = true;
+        }
+
+        /**
+         * Runs a task on the selector thread, waking up the {@link Selector}.
+         *
+         * @param task the task.
+         */
+        public void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a channel to this loop's {@link Selector}. Registration
+         * happens on the selector thread, so it never blocks on a select().
+         * If it fails, e.g. because the client has already closed the channel,
+         * the connection attached to it is closed, releasing its resources.
+         *
+         * @param channel    the {@link SelectableChannel}.
+         * @param ops        the interest set.
+         * @param attachment the attachment of the {@link SelectionKey}.
+         */
+        public void register(final SelectableChannel channel,
+                             final int ops, final Object attachment) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        channel.register(selector, ops, attachment);
+                    } catch (IOException e) {
+                        logger.error("Could not register channel to selector", e);
+                        if (attachment instanceof ChannelConnection) {
+                            ((ChannelConnection) attachment).close();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Stops the loop, which closes the {@link Selector} along
+         * with all the channels registered to it.
+         */
+        public void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Selects the ready channels and either accepts
+         * new connections or reads from the connected ones.
+         */
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // closed while stopping, nothing to do
+            } catch (Exception e) {
+                logger.error("An error occurred in the selector thread", e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Accepts all the pending connections and registers them
+         * to the selector threads for reading.
+         */
+        private void accept() {
+            try {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    // shed the load before doing any work for the connection
+                    if (!admission.tryAcquire()) {
+                        admission.refuse(channel);
+                        continue;
+                    }
+                    SelectorLoop loop = nextLoop();
+                    ChannelConnection connection = new ChannelConnection(channel, loop);
+                    try {
+                        channel.configureBlocking(false);
+                        // disable Nagle's algorithm to decrease latency
+                        // and increase performance.
+                        channel.socket().setTcpNoDelay(true);
+                    } catch (IOException e) {
+                        // e.g. reset by the client right after connecting,
+                        // so give back its permit and registry entry
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Could not set up the connection from "
+                                    + channel.socket().getRemoteSocketAddress(), e);
+                        }
+                        connection.close();
+                        continue;
+                    }
+                    loop.register(channel, SelectionKey.OP_READ, connection);
+                }
+            } catch (IOException e) {
+                logger.error("An error occurred while accepting a connection", e);
+            }
+        }
+
+        /**
+         * Reads the available data of a connection and, once the request
+         * has been fully read, hands it to the server's ThreadPool.
+         *
+         * @param key the {@link SelectionKey} of the connection.
+         */
+        private void read(SelectionKey key) {
+            ChannelConnection connection = (ChannelConnection) key.attachment();
+            try {
+                readBuffer.clear();
+                int bytesRead = connection.channel.read(readBuffer);
+                if (bytesRead < 0) {
+                    connection.close();
+                    return;
+                }
+                if (connection.info.getPhase() == ConnectionPhase.IDLE) {
+                    // the header timeout starts with the first byte of the request
+                    connection.info.setPhase(ConnectionPhase.READING_HEADERS);
+                }
+                connection.append(readBuffer.array(), bytesRead);
+                if (connection.frameRequests()) {
+                    // stop reading until the requests have been handled
+                    key.interestOps(0);
+                    connection.key = key;
+                    connection.info.setPhase(ConnectionPhase.WRITING);
+                    dispatch(connection);
+                } else if (connection.parser.isComplete()) {
+                    // the head is complete, so the rest is body, which
+                    // may stall for the body timeout since the last read
+                    connection.info.setPhase(ConnectionPhase.READING_BODY);
+                }
+            } catch (Exception e) {
+                logger.error("An error occurred while reading a request", e);
+                connection.close();
+            }
+        }
+
+        /**
+         * Closes the {@link Selector} and all channels registered to it.
+         */
+        private void close() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    Object attachment = key.attachment();
+                    if (attachment instanceof ChannelConnection) {
+                        ((ChannelConnection) attachment).close();
+                    } else {
+                        key.channel().close();
+                    }
+                }
+                selector.close();
+            } catch (Exception e) {
+                logger.error("Error while closing the selector", e);
+            }
+        }
+    }
+
+    /**
+     * Holds the data read from a {@link SocketChannel} and once one or more
+     * (pipelined) requests are complete, sends them to the server for handling.
+     */
+    private class ChannelConnection implements Runnable, Closeable {
+        private final SocketChannel channel;
+        private final SelectorLoop loop;
+        private final Socket socket;
+        private final ConnectionInfo info;
+        private final HttpRequestParser parser;
+        private SelectionKey key;
+        private Selector blockingSelector;
+        private boolean closed;
+        private int requests;
+        private byte[] data;
+        private int length;
+        private int parsedTo;
+        private ChunkedBodyScanner chunks;
+        private int scannedTo;
+        private int framedLength;
+        private int framedRequests;
+        private int replayed;
+        private long remaining;
+
+        /**
+         * Creates a new ChannelConnection and adds it to the {@link ConnectionRegistry}.
+         *
+         * @param channel the connection's {@link SocketChannel}.
+         * @param loop    the {@link SelectorLoop} the connection is registered to.
+         */
+        public ChannelConnection(SocketChannel channel, SelectorLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            parser = new HttpRequestParser();
+            socket = new ChannelSocket(this);
+            info = ConnectionRegistry.INSTANCE.register(NioConnector.this, socket, this);
+        }
+
+        /**
+         * Appends the data read to the request buffer. The buffer
+         * is only allocated once a connection sends any data.
+         *
+         * @param buffer the data read.
+         * @param count  the number of bytes read.
+         */
+        public void append(byte[] buffer, int count) {
+            if (data == null) {
+                data = new byte[Math.max(READ_BUFFER_SIZE, count)];
+            } else if (length + count > data.length) {
+                byte[] grown = new byte[Math.max(data.length * 2, length + count)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+            System.arraycopy(buffer, 0, data, length, count);
+            length += count;
+        }
+
+        /**
+         * Finds the complete requests (headers and body) in the request
+         * buffer, up to the pipeline depth, so that a pipelining client
+         * cannot keep a thread for longer than that. The heads are parsed
+         * incrementally, so only the newly read data is parsed every time.
+         * If a request exceeds the maximum buffered size, it is considered
+         * complete and the rest of its body is read by the handler, and so is
+         * the body of a request expecting 100-continue. Chunked bodies are
+         * framed by finding their last chunk, scanning each byte only once.
+         *
+         * @return true if there are complete requests, false otherwise.
+         */
+        public boolean frameRequests() {
+            while (framedRequests < pipelineDepth) {
+                long requestEnd;
+                try {
+                    parsedTo += parser.parse(data, parsedTo, length - parsedTo);
+                    if (!parser.isComplete()) {
+                        break;
+                    }
+                    String transferEncoding = parser.getTransferEncoding();
+                    long contentLength = parser.getContentLength();
+                    if (transferEncoding != null
+                            && transferEncoding.trim().equalsIgnoreCase("chunked")) {
+                        if (chunks == null) {
+                            chunks = new ChunkedBodyScanner(maxBodySize);
+                            scannedTo = parsedTo;
+                        }
+                        // only the bytes read since the last time are scanned
+                        requestEnd = chunks.scan(data, scannedTo, length);
+                        scannedTo = length;
+                    } else if (transferEncoding != null || contentLength > maxBodySize) {
+                        // the handler rejects it without reading the body
+                        requestEnd = parsedTo;
+                    } else {
+                        requestEnd = parsedTo + Math.max(0, contentLength);
+                    }
+                } catch (HttpException e) {
+                    // a malformed or too long head, let the handler reject it
+                    framedLength = length;
+                    framedRequests++;
+                    break;
+                }
+                if (requestEnd < 0 || requestEnd > length) {
+                    // a client expecting 100-continue waits for the handler
+                    // before sending the body, so it cannot be buffered first
+                    if (framedRequests == 0 && (length >= MAX_REQUEST_SIZE
+                            || parser.hasHeader(HttpRequestHeader.Expect))) {
+                        // the end of a chunked body is not known in advance, so
+                        // the handler reads the rest of the connection itself
+                        remaining = requestEnd < 0 ? Long.MAX_VALUE : requestEnd - length;
+                        framedLength = length;
+                        framedRequests = 1;
+                    }
+                    break;
+                }
+                framedLength = (int) requestEnd;
+                framedRequests++;
+                parsedTo = framedLength;
+                parser.reset();
+                chunks = null;
+            }
+            return framedRequests > 0;
+        }
+
+        /**
+         * Sends the requests to the server for handling. Afterwards, a
+         * persistent connection either sends its next pipelined requests
+         * to the back of the ThreadPool queue, or is registered for reading
+         * again, without keeping a thread while waiting for the next request.
+         */
+        @Override
+        public void run() {
+            admission.dequeued();
+            boolean keepAlive = false;
+            try {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Handling connection from "
+                            + socket.getRemoteSocketAddress());
+                }
+                keepAlive = server.handle(socket);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Finished handling connection from "
+                            + socket.getRemoteSocketAddress());
+                }
+            } catch (Exception e) {
+                if (!channel.isOpen()) {
+                    // closed by the TimeoutService or while stopping
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Connection from " + socket.getRemoteSocketAddress()
+                                + " closed while handling it");
+                    }
+                } else {
+                    logger.error("Error while handling the connection from "
+                            + socket.getRemoteSocketAddress(), e);
+                }
+            } finally {
+                requests += framedRequests;
+                // a streamed body must have been read to its end to resume
+                if (keepAlive && remaining == 0 && requests < keepAliveMax
+                        && channel.isOpen() && server.isRunning()) {
+                    resume();
+                } else {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Removes the handled requests from the request buffer and either
+         * sends the next complete ones for handling, or registers the
+         * connection for reading the next request.
+         */
+        private void resume() {
+            length -= framedLength;
+            if (length > 0) {
+                System.arraycopy(data, framedLength, data, 0, length);
+            } else {
+                // do not keep a buffer for idle connections
+                data = null;
+            }
+            if (parser.isComplete() || parsedTo < framedLength) {
+                // parse the next request again from its start, as the parser is
+                // either past the head of a request with an incomplete body, or
+                // behind the end of a rejected one or one with a streamed body
+                parser.reset();
+                parsedTo = framedLength;
+                chunks = null;
+            }
+            parsedTo -= framedLength;
+            framedLength = 0;
+            framedRequests = 0;
+            replayed = 0;
+            remaining = 0;
+            if (length > 0 && frameRequests()) {
+                info.setPhase(ConnectionPhase.WRITING);
+                dispatch(this);
+                return;
+            }
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits until the channel is ready for the given operation,
+         * using a temporary {@link Selector} which is only created
+         * for the (few) clients that cannot keep up. Giving up on a client
+         * is left to the {@link TimeoutService}, which closes the channel.
+         *
+         * @param op the operation, either OP_READ or OP_WRITE.
+         * @throws IOException any exception that might occur.
+         */
+        public void await(int op) throws IOException {
+            if (blockingSelector == null) {
+                blockingSelector = Selector.open();
+            }
+            SelectionKey blockingKey = channel.register(blockingSelector, op);
+            try {
+                while (blockingSelector.select(AWAIT_CHECK_INTERVAL) == 0) {
+                    if (!channel.isOpen()) {
+                        throw new ClosedChannelException();
+                    }
+                }
+            } finally {
+                blockingKey.cancel();
+                blockingSelector.selectNow();
+            }
+        }
+
+        /**
+         * Rejects the connection with a 503 Service Unavailable and releases it.
+         * The channel is closed by the {@link AdmissionControl}, once the client
+         * has had time to read the response.
+         */
+        public synchronized void reject() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ConnectionRegistry.INSTANCE.unregister(socket);
+            if (key != null) {
+                key.cancel();
+            }
+            admission.reject(channel.socket());
+            admission.release();
+            data = null;
+        }
+
+        /**
+         * Closes the connection, releases its resources and
+         * removes it from the {@link ConnectionRegistry}.
+         */
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ConnectionRegistry.INSTANCE.unregister(socket);
+            admission.release();
+            try {
+                if (key != null) {
+                    key.cancel();
+                }
+                channel.close();
+                if (blockingSelector != null) {
+                    blockingSelector.close();
+                }
+            } catch (IOException e) {
+                logger.error("Error while closing the connection", e);
+            }
+            data = null;
+        }
+    }
+
+    /**
+     * An {@link InputStream} which returns the request data already read
+     * by the selector thread, followed by the rest of the request body
+     * (if any) that did not fit in the request buffer.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final ChannelConnection connection;
+
+        /**
+         * Creates a new ChannelInputStream.
+         *
+         * @param connection the {@link ChannelConnection}.
+         */
+        public ChannelInputStream(ChannelConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (connection.replayed < connection.framedLength) {
+                int count = Math.min(len, connection.framedLength - connection.replayed);
+                System.arraycopy(connection.data, connection.replayed, b, off, count);
+                connection.replayed += count;
+                return count;
+            }
+            if (connection.remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off,
+                    (int) Math.min(len, connection.remaining));
+            int bytesRead;
+            while ((bytesRead = connection.channel.read(buffer)) == 0) {
+                connection.await(SelectionKey.OP_READ);
+            }
+            if (bytesRead > 0) {
+                connection.remaining -= bytesRead;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public int available() {
+            return connection.framedLength - connection.replayed;
+        }
+    }
+
+    /**
+     * An {@link OutputStream} which writes to the non-blocking
+     * {@link SocketChannel}, waiting whenever the client cannot keep up.
+     * Files are sent with {@link FileChannel#transferTo}, straight from
+     * the page cache to the socket.
+     */
+    private static class ChannelOutputStream extends OutputStream
+            implements FileTransferable {
+        private final ChannelConnection connection;
+
+        /**
+         * Creates a new ChannelOutputStream.
+         *
+         * @param connection the {@link ChannelConnection}.
+         */
+        public ChannelOutputStream(ChannelConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            transferFrom(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void transferFrom(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (connection.channel.write(buffer) == 0) {
+                    connection.await(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        @Override
+        public long transferFrom(FileChannel file, long position, long count)
+                throws IOException {
+            long transferred = 0;
+            while (transferred < count) {
+                long sent = file.transferTo(position + transferred,
+                        count - transferred, connection.channel);
+                if (sent == 0) {
+                    if (position + transferred >= file.size()) {
+                        // the file has been truncated
+                        break;
+                    }
+                    connection.await(SelectionKey.OP_WRITE);
+                }
+                transferred += sent;
+            }
+            return transferred;
+        }
+    }
+
+    /**
+     * A {@link Socket} view of a {@link ChannelConnection}, so that the
+     * blocking programming model of the {@link com.akrivos.eos.Handler}
+     * stays the same for both connectors.
+     */
+    private static class ChannelSocket extends Socket {
+        private final ChannelConnection connection;
+        private final InputStream in;
+        private final OutputStream out;
+
+        /**
+         * Creates a new ChannelSocket.
+         *
+         * @param connection the {@link ChannelConnection}.
+         */
+        public ChannelSocket(ChannelConnection connection) {
+            this.connection = connection;
+            in = new ChannelInputStream(connection);
+            out = new ChannelOutputStream(connection);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public SocketChannel getChannel() {
+            return connection.channel;
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return connection.channel.socket().getRemoteSocketAddress();
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return connection.channel.socket().getInetAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return connection.channel.socket().getPort();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connection.channel.isConnected();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !connection.channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            connection.close();
+        }
+
+        @Override
+        public String toString() {
+            return connection.channel.toString();
+        }
+    }
+}
@@ -4,23 +4,24 @@ import com.akrivos.eos.Connector;
 import com.akrivos.eos.Server;
 import org.apache.log4j.Logger;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * An implementation of a {@link com.akrivos.eos.Connector} that listens on a specified address
- * and port, with a specific number of receivers, accepting connections and
- * enqueuing them to the server's {@link com.akrivos.eos.ThreadPool}
+ * and port, with a specific number of receivers (acceptor threads), accepting
+ * connections and enqueuing them to the server's {@link com.akrivos.eos.ThreadPool}
  */
 public class SocketConnector implements Connector {
     private static final Logger logger = Logger.getLogger(SocketConnector.class);
 
     private final int receivers;
-    private final Set<Connection> connections;
+    private final AdmissionControl admission;
     private ServerSocket serverSocket;
+    private Thread[] acceptors;
     private Server server;
     private String address;
     private int port;
@@ -32,13 +33,15 @@ public class SocketConnector implements Connector {
      */
     public SocketConnector(int receivers) {
         this.receivers = receivers;
-        connections = new HashSet<Connection>();
+        admission = new AdmissionControl();
     }
 
     /**
      * Starts the {@link SocketConnector} by spawning the receivers, who wait until
      * a connection is accepted, and finally adding it to the {@link com.akrivos.eos.ThreadPool}
-     * to be handled by the server's handler.
+     * to be handled by the server's handler. The receivers run in their own
+     * threads, so they do not take any of the {@link com.akrivos.eos.ThreadPool}'s
+     * threads away from handling requests.
      *
      * @throws Exception any exception that might occur.
      */
@@ -46,55 +49,44 @@ public class SocketConnector implements Connector {
     public void start() throws Exception {
         serverSocket = new ServerSocket();
         serverSocket.bind(new InetSocketAddress(address, port));
+        acceptors = new Thread[receivers];
         for (int i = 0; i < receivers; i++) {
-            server.enqueueTask(new Runnable() {
-                @Override
-                public void run() {
-                    if (logger.isInfoEnabled()) {
-                        logger.info("Waiting for connection...");
-                    }
-                    try {
-                        do {
-                            // wait for connection
-                            Socket socket = serverSocket.accept();
-
-                            // disable Nagle's algorithm to decrease latency
-                            // and increase performance.
-                            socket.setTcpNoDelay(true);
-
-                            // keep-alive for 15 seconds.
-                            socket.setSoTimeout(15 * 1000);
-
-                            // add to ThreadPool
-                            if (logger.isDebugEnabled()) {
-                                logger.debug("Adding connection from "
-                                        + socket.getRemoteSocketAddress().toString()
-                                        + " to ThreadPool");
-                            }
-                            server.enqueueTask(new Connection(socket));
-                        } while (!serverSocket.isClosed());
-                    } catch (Exception e) {
-                        logger.error("An error occurred while waiting for a request", e);
-                    }
-                }
-            });
+            acceptors[i] = new Thread(new Acceptor(), "eos-acceptor-" + i);
+            acceptors[i].start();
         }
     }
 
     /**
-     * Stops the {@link SocketConnector} by closing all connections
-     * and removing all references to them.
+     * Stops accepting new connections by closing the {@link ServerSocket}
+     * and waits for the receivers to finish.
      *
      * @throws Exception any exception that might occur.
      */
     @Override
-    public void stop() throws Exception {
-        for (Connection c : connections) {
-            c.close();
-            removeConnection(c);
+    public void stopAccepting() throws Exception {
+        if (serverSocket != null && !serverSocket.isClosed()) {
+            serverSocket.close();
+        }
+        if (acceptors != null) {
+            for (Thread acceptor : acceptors) {
+                acceptor.join();
+            }
         }
     }
 
+    /**
+     * Stops the {@link SocketConnector} by closing the {@link ServerSocket}
+     * and all its connections, which also removes them from the
+     * {@link ConnectionRegistry}.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Override
+    public void stop() throws Exception {
+        stopAccepting();
+        ConnectionRegistry.INSTANCE.closeAll(this);
+    }
+
     /**
      * @see Connector#getServer()
      */
@@ -144,45 +136,93 @@ public class SocketConnector implements Connector {
     }
 
     /**
-     * Adds a {@link Connection} to our {@link Set}.
-     *
-     * @param c the connection.
+     * Waits for connections and adds them to the server's
+     * {@link com.akrivos.eos.ThreadPool}, until the server socket is closed.
      */
-    private synchronized void addConnection(Connection c) {
-        connections.add(c);
+    private class Acceptor implements Runnable {
+        /**
+         * Accepts connections in a loop. A failed accept (e.g. when running
+         * out of file descriptors) does not stop the receiver.
+         */
+        @Override
+        public void run() {
+            if (logger.isInfoEnabled()) {
+                logger.info("Waiting for connection...");
+            }
+            while (!serverSocket.isClosed()) {
+                try {
+                    // wait for connection
+                    Socket socket = serverSocket.accept();
+
+                    // shed the load before doing any work for the connection
+                    if (!admission.tryAcquire()) {
+                        admission.refuse(socket);
+                        continue;
+                    }
+
+                    // disable Nagle's algorithm to decrease latency
+                    // and increase performance.
+                    socket.setTcpNoDelay(true);
+
+                    // add to ThreadPool
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Adding connection from "
+                                + socket.getRemoteSocketAddress().toString()
+                                + " to ThreadPool");
+                    }
+                    enqueue(new Connection(socket));
+                } catch (Exception e) {
+                    if (!serverSocket.isClosed()) {
+                        logger.error("An error occurred while waiting for a request", e);
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Removed a {@link Connection} from our {@link Set}.
+     * Adds a {@link Connection} to the server's {@link com.akrivos.eos.ThreadPool},
+     * rejecting it with a 503 Service Unavailable if the queue is full.
      *
-     * @param c the connection.
+     * @param connection the connection.
+     * @throws Exception any exception that might occur.
      */
-    private synchronized void removeConnection(Connection c) {
-        connections.remove(c);
+    private void enqueue(Connection connection) throws Exception {
+        if (!admission.tryEnqueue()) {
+            connection.reject();
+            return;
+        }
+        if (!server.enqueueTask(connection)) {
+            admission.dequeued();
+            connection.reject();
+        }
     }
 
     /**
      * Takes a request and sends it to the server for handling.
      */
-    private class Connection implements Runnable {
+    private class Connection implements Runnable, Closeable {
         private final Socket socket;
+        private boolean closed;
 
         /**
-         * Creates a new Connection.
+         * Creates a new Connection and adds it to the {@link ConnectionRegistry}.
          *
          * @param socket the connection's {@link Socket}.
          */
         public Connection(Socket socket) {
             this.socket = socket;
+            ConnectionRegistry.INSTANCE.register(SocketConnector.this, socket, this);
         }
 
         /**
-         * Adds a connection and sends the request's {@link Socket}
-         * to the server for handling.
+         * Sends the request's {@link Socket} to the server for handling.
+         * The handler serves all the requests of a persistent
+         * connection, so the connection is closed afterwards.
          */
         @Override
         public void run() {
-            addConnection(this);
+            admission.dequeued();
             try {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Handling connection from "
@@ -194,8 +234,16 @@ public class SocketConnector implements Connector {
                             + socket.getRemoteSocketAddress().toString());
                 }
             } catch (Exception e) {
-                logger.error("Error while handling the connection from "
-                        + socket.getRemoteSocketAddress().toString(), e);
+                if (socket.isClosed()) {
+                    // closed by the TimeoutService or while stopping
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Connection from " + socket.getRemoteSocketAddress()
+                                + " closed while handling it");
+                    }
+                } else {
+                    logger.error("Error while handling the connection from "
+                            + socket.getRemoteSocketAddress().toString(), e);
+                }
             } finally {
                 try {
                     close();
@@ -207,14 +255,29 @@ public class SocketConnector implements Connector {
         }
 
         /**
-         * Closes the connection and removes it.
+         * Closes the connection and removes it from the {@link ConnectionRegistry}.
          *
-         * @throws Exception any exception that might occur.
+         * @throws IOException any exception that might occur.
          */
-        public void close() throws Exception {
-            if (socket != null) {
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                ConnectionRegistry.INSTANCE.unregister(socket);
+                admission.release();
                 socket.close();
-                removeConnection(this);
+            }
+        }
+
+        /**
+         * Rejects the connection with a 503 Service Unavailable and releases it.
+         */
+        public synchronized void reject() {
+            if (!closed) {
+                closed = true;
+                ConnectionRegistry.INSTANCE.unregister(socket);
+                admission.reject(socket);
+                admission.release();
             }
         }
     }
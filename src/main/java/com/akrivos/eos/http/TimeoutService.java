@@ -0,0 +1,257 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.config.Settings;
+import com.akrivos.eos.http.constants.ConnectionPhase;
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces the timeouts of the open connections using a hashed timing wheel.
+ * Every connection sits in the slot of the wheel its deadline falls in, and a
+ * single thread visits one slot per tick. A connection whose deadline has moved
+ * later is simply put in a later slot when its slot is visited, and one whose
+ * deadline has passed is closed. Only a phase change that brings the deadline
+ * forward, e.g. from idle to reading headers, puts the connection in an
+ * earlier slot right away; the entry it leaves behind is dropped when its
+ * slot is visited.
+ * <p/>
+ * The header and idle timeouts count from the start of the phase, so a client
+ * cannot keep a connection by trickling a byte at a time, while the body and
+ * write timeouts count from the last data read or written, so large transfers
+ * are only closed when they stall.
+ */
+public class TimeoutService implements Runnable {
+    private static final Logger logger = Logger.getLogger(TimeoutService.class);
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final long[] timeouts;
+    private final AtomicLong[] expired;
+    private final Queue<ConnectionInfo>[] wheel;
+    private final long startTime;
+    private volatile long currentTick;
+    private volatile boolean running;
+
+    /**
+     * Creates a new TimeoutService with the timeouts set in the {@link Settings}.
+     */
+    public TimeoutService() {
+        this(Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_TIMEOUT_HEADER),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_TIMEOUT_BODY),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_TIMEOUT_WRITE),
+                Settings.INSTANCE.getValueAsIntegerFor(Settings.SERVER_KEEPALIVE_TIMEOUT));
+    }
+
+    /**
+     * Creates a new TimeoutService with the given timeouts.
+     *
+     * @param headerTimeout the seconds to read the request line and headers.
+     * @param bodyTimeout   the seconds the request body may stall.
+     * @param writeTimeout  the seconds writing the response may stall.
+     * @param idleTimeout   the seconds a persistent connection may stay idle.
+     */
+    public TimeoutService(int headerTimeout, int bodyTimeout,
+                          int writeTimeout, int idleTimeout) {
+        ConnectionPhase[] phases = ConnectionPhase.values();
+        timeouts = new long[phases.length];
+        timeouts[ConnectionPhase.IDLE.ordinal()] = idleTimeout * 1000L;
+        timeouts[ConnectionPhase.READING_HEADERS.ordinal()] = headerTimeout * 1000L;
+        timeouts[ConnectionPhase.READING_BODY.ordinal()] = bodyTimeout * 1000L;
+        timeouts[ConnectionPhase.WRITING.ordinal()] = writeTimeout * 1000L;
+        expired = new AtomicLong[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            expired[i] = new AtomicLong();
+        }
+        @SuppressWarnings("unchecked")
+        Queue<ConnectionInfo>[] slots = (Queue<ConnectionInfo>[]) new Queue<?>[WHEEL_SIZE];
+        wheel = slots;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<ConnectionInfo>();
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts the thread turning the wheel.
+     */
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this, "eos-timeouts");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the thread turning the wheel.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Starts enforcing the timeouts of a connection.
+     *
+     * @param info the {@link ConnectionInfo} of the connection.
+     */
+    public void schedule(ConnectionInfo info) {
+        synchronized (info) {
+            info.setTimeouts(this);
+            schedule(info, deadlineOf(info));
+        }
+    }
+
+    /**
+     * Moves a connection to an earlier slot, if its deadline
+     * in its current phase comes before the slot it is in.
+     *
+     * @param info the {@link ConnectionInfo} of the connection.
+     */
+    void reschedule(ConnectionInfo info) {
+        synchronized (info) {
+            long deadline = deadlineOf(info);
+            if (ticksOf(deadline) < info.getScheduledTick()) {
+                schedule(info, deadline);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of connections closed because
+     * they exceeded the timeout of the given phase.
+     *
+     * @param phase the {@link ConnectionPhase}.
+     * @return the number of connections closed.
+     */
+    public long getExpired(ConnectionPhase phase) {
+        return expired[phase.ordinal()].get();
+    }
+
+    /**
+     * Visits a slot of the wheel every tick.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                long nextTick = startTime + (currentTick + 1) * TICK_MILLIS;
+                long delay = nextTick - System.currentTimeMillis();
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                expire(wheel[(int) (currentTick & WHEEL_MASK)], currentTick);
+                currentTick++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("An error occurred while expiring connections", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the connections of a slot that are past their deadline
+     * and moves the rest to the slot of their current deadline.
+     *
+     * @param slot the slot of the wheel.
+     * @param tick the tick the slot is visited for.
+     */
+    private void expire(Queue<ConnectionInfo> slot, long tick) {
+        long now = System.currentTimeMillis();
+        // only visit the connections that were in the slot when we started,
+        // as those rescheduled in the meantime belong to a later round
+        for (int i = slot.size(); i > 0; i--) {
+            ConnectionInfo info = slot.poll();
+            if (info == null) {
+                break;
+            }
+            if (!info.isOpen() || !isDue(info, tick, now)) {
+                continue;
+            }
+            ConnectionPhase phase = info.getPhase();
+            expired[phase.ordinal()].incrementAndGet();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Closing connection " + info + " after the "
+                        + phase + " timeout");
+            }
+            try {
+                info.close();
+            } catch (Exception e) {
+                logger.error("Error while closing the connection from "
+                        + info.getRemoteAddress(), e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a connection visited in its slot is past its deadline,
+     * moving it to the slot of its deadline if not. A connection that was
+     * moved to another slot since is left to that slot.
+     *
+     * @param info the {@link ConnectionInfo} of the connection.
+     * @param tick the tick the slot is visited for.
+     * @param now  the current time in milliseconds.
+     * @return true if the connection is past its deadline, false otherwise.
+     */
+    private boolean isDue(ConnectionInfo info, long tick, long now) {
+        synchronized (info) {
+            if (info.getScheduledTick() != tick) {
+                return false;
+            }
+            long deadline = deadlineOf(info);
+            if (deadline > now) {
+                schedule(info, deadline);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Puts a connection in the slot its deadline falls in, or the furthest
+     * slot, if its deadline is more than a turn of the wheel away. Must be
+     * called holding the lock of the {@link ConnectionInfo}.
+     *
+     * @param info     the {@link ConnectionInfo} of the connection.
+     * @param deadline the deadline in milliseconds.
+     */
+    private void schedule(ConnectionInfo info, long deadline) {
+        long tick = currentTick;
+        long ticks = Math.min(Math.max(ticksOf(deadline), tick + 1), tick + WHEEL_SIZE - 1);
+        info.setScheduledTick(ticks);
+        wheel[(int) (ticks & WHEEL_MASK)].add(info);
+    }
+
+    /**
+     * Works out the tick a deadline falls in.
+     *
+     * @param deadline the deadline in milliseconds.
+     * @return the tick.
+     */
+    private long ticksOf(long deadline) {
+        return (deadline - startTime + TICK_MILLIS - 1) / TICK_MILLIS;
+    }
+
+    /**
+     * Works out the deadline of a connection in its current phase.
+     *
+     * @param info the {@link ConnectionInfo} of the connection.
+     * @return the deadline in milliseconds.
+     */
+    private long deadlineOf(ConnectionInfo info) {
+        ConnectionPhase phase = info.getPhase();
+        long timeout = timeouts[phase.ordinal()];
+        switch (phase) {
+            case READING_BODY:
+            case WRITING:
+                return info.getLastActivity() + timeout;
+            default:
+                return info.getPhaseStart() + timeout;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.akrivos.eos.http.constants;
+
+/**
+ * An enum with the phases a connection goes through while serving requests.
+ */
+public enum ConnectionPhase {
+    /**
+     * Waiting for the next request of a persistent connection.
+     */
+    IDLE,
+
+    /**
+     * Reading the request line and headers.
+     */
+    READING_HEADERS,
+
+    /**
+     * Reading the request body.
+     */
+    READING_BODY,
+
+    /**
+     * Handling the request and writing the response.
+     */
+    WRITING
+}
@@ -0,0 +1,105 @@
+package com.akrivos.eos.http.constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An enum with the content codings the server can send (RFC 7231, section 3.1.2.1).
+ */
+public enum ContentEncoding {
+    /**
+     * The GZIP file format (RFC 1952), which may also be precompressed
+     * into a sidecar file next to the original, e.g. app.js.gz.
+     */
+    GZIP("gzip", ".gz"),
+
+    /**
+     * The zlib data format (RFC 1950) around a deflate stream.
+     */
+    DEFLATE("deflate", null),
+
+    /**
+     * No encoding.
+     */
+    IDENTITY("identity", null);
+
+    private final String name;
+    private final String extension;
+
+    /**
+     * Creates a new {@link ContentEncoding}.
+     *
+     * @param name      the name of the coding.
+     * @param extension the extension of precompressed sidecar files, null if there are none.
+     */
+    private ContentEncoding(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the name of the coding, as used in the Accept-Encoding
+     * and Content-Encoding headers.
+     *
+     * @return the name of the coding.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the extension of the precompressed sidecar files.
+     *
+     * @return the extension, null if sidecar files are not looked for.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Encodes the given data.
+     *
+     * @param data   the data.
+     * @param offset the offset of the data.
+     * @param length the length of the data.
+     * @param level  the compression level, 1 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @return the encoded data.
+     * @throws IOException any exception that might occur.
+     */
+    public byte[] encode(byte[] data, int offset, int length, final int level)
+            throws IOException {
+        if (this == IDENTITY) {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            return copy;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(length / 4 + 64);
+        OutputStream encoder;
+        Deflater deflater;
+        if (this == GZIP) {
+            deflater = null;
+            encoder = new GZIPOutputStream(encoded) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        } else {
+            deflater = new Deflater(level);
+            encoder = new DeflaterOutputStream(encoded, deflater);
+        }
+        try {
+            encoder.write(data, offset, length);
+            encoder.close();
+        } finally {
+            // the stream only frees its native memory if it created the deflater
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return encoded.toByteArray();
+    }
+}
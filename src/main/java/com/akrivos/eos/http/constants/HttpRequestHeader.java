@@ -1,9 +1,5 @@
 package com.akrivos.eos.http.constants;
 
-import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * An enum with all the request headers.
  * Taken from https://github.com/bigcompany/know-your-http
@@ -37,26 +33,32 @@ public enum HttpRequestHeader {
     Range("Range"),
     Referer("Referer"),
     TE("TE"),
+    TransferEncoding("Transfer-Encoding"),
     Upgrade("Upgrade"),
     UserAgent("User-Agent"),
     Via("Via"),
     Warning("Warning");
 
     /**
-     * Keep a map containing all the enums with their {@link String} value.
-     * http://stackoverflow.com/questions/1167982/check-if-enum-exists-in-java
+     * An open addressing hash table of all the headers, keyed by the
+     * case-insensitive hash of their names, so a header can be matched
+     * straight from the bytes of a request without creating any String.
      */
-    private static final Map<String, HttpRequestHeader> nameToValueMap =
-            new HashMap<String, HttpRequestHeader>();
+    private static final HttpRequestHeader[] table = new HttpRequestHeader[128];
+    private static final int TABLE_MASK = table.length - 1;
     private final String name;
+    private final byte[] lowerCaseName;
 
     /**
-     * Populates the map using EnumSet.allOf, which is much more efficient for
-     * enums without a large number of elements.
+     * Populates the hash table, using linear probing for any collisions.
      */
     static {
-        for (HttpRequestHeader value : EnumSet.allOf(HttpRequestHeader.class)) {
-            nameToValueMap.put(value.getName(), value);
+        for (HttpRequestHeader value : values()) {
+            int i = hash(value.lowerCaseName, 0, value.lowerCaseName.length) & TABLE_MASK;
+            while (table[i] != null) {
+                i = (i + 1) & TABLE_MASK;
+            }
+            table[i] = value;
         }
     }
 
@@ -67,16 +69,49 @@ public enum HttpRequestHeader {
      */
     private HttpRequestHeader(String name) {
         this.name = name;
+        lowerCaseName = new byte[name.length()];
+        for (int i = 0; i < name.length(); i++) {
+            lowerCaseName[i] = (byte) toLowerCase(name.charAt(i));
+        }
     }
 
     /**
-     * Parses a {@link String} and tries to match the {@link HttpRequestHeader}.
+     * Parses a {@link String} and tries to match (case-insensitive)
+     * the {@link HttpRequestHeader}.
      *
      * @param name the {@link String} representation of a {@link HttpRequestHeader}.
      * @return the {@link HttpRequestHeader} if found, null otherwise.
      */
     public static HttpRequestHeader forName(String name) {
-        return nameToValueMap.get(name);
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + toLowerCase(name.charAt(i));
+        }
+        for (int i = h & TABLE_MASK; table[i] != null; i = (i + 1) & TABLE_MASK) {
+            if (table[i].name.equalsIgnoreCase(name)) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Matches (case-insensitive) the name of a header in the given
+     * bytes to the {@link HttpRequestHeader}, without any allocation.
+     *
+     * @param data   the bytes.
+     * @param offset the index the name starts at.
+     * @param length the length of the name.
+     * @return the {@link HttpRequestHeader} if found, null otherwise.
+     */
+    public static HttpRequestHeader forName(byte[] data, int offset, int length) {
+        int h = hash(data, offset, length);
+        for (int i = h & TABLE_MASK; table[i] != null; i = (i + 1) & TABLE_MASK) {
+            if (table[i].matches(data, offset, length)) {
+                return table[i];
+            }
+        }
+        return null;
     }
 
     /**
@@ -87,4 +122,51 @@ public enum HttpRequestHeader {
     public String getName() {
         return name;
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks (case-insensitive) if the given bytes are the name of the header.
+     *
+     * @param data   the bytes.
+     * @param offset the index the name starts at.
+     * @param length the length of the name.
+     * @return true if the bytes are the name of the header, false otherwise.
+     */
+    private boolean matches(byte[] data, int offset, int length) {
+        if (length != lowerCaseName.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerCase(data[offset + i]) != lowerCaseName[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes (case-insensitive) a header name, the same way as
+     * {@link String#hashCode()} does for a lowercase {@link String}.
+     *
+     * @param data   the bytes.
+     * @param offset the index the name starts at.
+     * @param length the length of the name.
+     * @return the hash of the name.
+     */
+    private static int hash(byte[] data, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + toLowerCase(data[i]);
+        }
+        return h;
+    }
+
+    /**
+     * Converts an ASCII letter to lowercase.
+     *
+     * @param c the character.
+     * @return the lowercase letter, or the character itself if it is not an uppercase letter.
+     */
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
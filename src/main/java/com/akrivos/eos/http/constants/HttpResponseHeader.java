@@ -1,5 +1,6 @@
 package com.akrivos.eos.http.constants;
 
+import java.nio.charset.StandardCharsets;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -20,11 +21,13 @@ public enum HttpResponseHeader {
     ContentLength("Content-Length"),
     ContentLocation("Content-Location"),
     ContentMd5("Content-MD5"),
+    ContentRange("Content-Range"),
     ContentDisposition("Content-Disposition"),
     ContentType("Content-Type"),
     Date("Date"),
-    Etag("Etag"),
+    Etag("ETag"),
     Expires("Expires"),
+    KeepAlive("Keep-Alive"),
     LastModified("Last-Modified"),
     Link("Link"),
     Location("Location"),
@@ -51,6 +54,7 @@ public enum HttpResponseHeader {
     private static final Map<String, HttpResponseHeader> nameToValueMap =
             new HashMap<String, HttpResponseHeader>();
     private final String name;
+    private final byte[] nameBytes;
 
     /**
      * Populates the map using EnumSet.allOf, which is much more efficient for
@@ -69,6 +73,7 @@ public enum HttpResponseHeader {
      */
     private HttpResponseHeader(String name) {
         this.name = name;
+        nameBytes = (name + ": ").getBytes(StandardCharsets.ISO_8859_1);
     }
 
     /**
@@ -89,4 +94,14 @@ public enum HttpResponseHeader {
     public String getName() {
         return name;
     }
+
+    /**
+     * Returns the name of the header, followed by ": ", already encoded to be
+     * copied into a response head.
+     *
+     * @return the encoded name of the header.
+     */
+    public byte[] getNameBytes() {
+        return nameBytes;
+    }
 }
\ No newline at end of file
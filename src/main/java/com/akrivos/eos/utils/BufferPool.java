@@ -0,0 +1,60 @@
+package com.akrivos.eos.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An Enum singleton pooling large byte buffers, used to copy files to
+ * connections that cannot send them with zero-copy, so that a large buffer
+ * does not have to be allocated (and collected) for every response.
+ */
+public enum BufferPool {
+    INSTANCE;
+
+    /**
+     * The size of the pooled buffers.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final ConcurrentLinkedQueue<byte[]> buffers;
+    private final AtomicInteger pooled;
+
+    /**
+     * Initialises the singleton instance.
+     */
+    private BufferPool() {
+        buffers = new ConcurrentLinkedQueue<byte[]>();
+        pooled = new AtomicInteger();
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates a new one if it is empty.
+     *
+     * @return a buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool, unless the pool is full.
+     *
+     * @param buffer the buffer, which must not be used afterwards.
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.akrivos.eos.utils;
+
+/**
+ * A Count-Min sketch estimating how often keys have been seen recently, in
+ * a fixed amount of memory, for the TinyLFU admission of a cache. Every key
+ * has four 4-bit counters, one per row, spread over an array of longs, and
+ * its frequency is the smallest of them. Once enough keys have been counted,
+ * all the counters are halved, so that old popularity fades away.
+ * It is not thread-safe, so it must be guarded by its cache.
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * Creates a new {@link FrequencySketch}.
+     *
+     * @param maximumSize the number of keys the cache is expected to hold.
+     */
+    public FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(16, maximumSize) - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+    /**
+     * Returns the estimated number of times the key has been seen recently.
+     *
+     * @param hash the hash code of the key.
+     * @return the frequency, 0 to 15.
+     */
+    public int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long h = spread(hash, row);
+            int offset = ((int) h & 15) << 2;
+            int count = (int) ((table[indexOf(h)] >>> offset) & 15);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts the key once more, halving all the counters every
+     * ten times as many keys as the table has slots.
+     *
+     * @param hash the hash code of the key.
+     */
+    public void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long h = spread(hash, row);
+            int index = indexOf(h);
+            int offset = ((int) h & 15) << 2;
+            if (((table[index] >>> offset) & 15) < MAX_COUNT) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves all the counters.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size /= 2;
+    }
+
+    /**
+     * Mixes the hash code with the seed of a row.
+     *
+     * @param hash the hash code of the key.
+     * @param row  the row.
+     * @return the mixed hash.
+     */
+    private static long spread(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Returns the slot of the table holding the counter of a mixed hash,
+     * using other bits than the ones selecting the counter in the slot.
+     *
+     * @param h the mixed hash.
+     * @return the index in the table.
+     */
+    private int indexOf(long h) {
+        return (int) (h >>> 4) & tableMask;
+    }
+}
@@ -85,4 +85,23 @@ public enum MimeTypes {
         }
         return DEFAULT_MIME_TYPE;
     }
+
+    /**
+     * Checks whether content of the given mime-type is worth compressing,
+     * i.e. it is text, rather than already compressed media or archives.
+     *
+     * @param mimeType the mime-type, possibly with parameters.
+     * @return true if the content is compressible, false otherwise.
+     */
+    public boolean isCompressible(String mimeType) {
+        int semicolon = mimeType.indexOf(';');
+        String type = (semicolon < 0 ? mimeType : mimeType.substring(0, semicolon)).trim();
+        return type.startsWith("text/")
+                || type.endsWith("+xml")
+                || type.endsWith("+json")
+                || type.equals("application/javascript")
+                || type.equals("application/json")
+                || type.equals("application/xml")
+                || type.equals("application/wasm");
+    }
 }
\ No newline at end of file
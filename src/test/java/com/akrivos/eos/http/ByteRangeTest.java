@@ -0,0 +1,101 @@
+package com.akrivos.eos.http;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests parsing Range headers with {@link ByteRange}.
+ */
+public class ByteRangeTest {
+    /**
+     * Ranges with both positions, an open end, or a suffix are parsed in the
+     * requested order, and shortened to the length of the representation.
+     */
+    @Test
+    public void parsesRanges() {
+        assertEquals("[0-499]", ByteRange.parse("bytes=0-499", 1000).toString());
+        assertEquals("[500-999]", ByteRange.parse("bytes=500-", 1000).toString());
+        assertEquals("[900-999]", ByteRange.parse("bytes=900-5000", 1000).toString());
+        assertEquals("[0-0, 999-999]", ByteRange.parse("Bytes=0-0, -1", 1000).toString());
+        assertEquals("[10-19, 0-4]", ByteRange.parse("bytes=10-19,,0-4", 1000).toString());
+    }
+
+    /**
+     * A suffix is the last bytes of the representation, or all of it if longer.
+     */
+    @Test
+    public void parsesSuffixes() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=-500", 1000);
+        assertEquals(500, ranges.get(0).getFirst());
+        assertEquals(999, ranges.get(0).getLast());
+        assertEquals(500, ranges.get(0).getLength());
+        assertEquals("[0-999]", ByteRange.parse("bytes=-5000", 1000).toString());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+    }
+
+    /**
+     * Ranges starting past the end cannot be satisfied, which is answered
+     * with a 416 (Requested Range Not Satisfiable) when none is left.
+     */
+    @Test
+    public void leavesOutUnsatisfiableRanges() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=1000-1999, 5000-", 1000).isEmpty());
+        assertEquals("[0-9]", ByteRange.parse("bytes=1000-, 0-9", 1000).toString());
+    }
+
+    /**
+     * Positions too large to be a length, or that are not decimal, make the
+     * header invalid, so it is ignored rather than the positions overflowing.
+     */
+    @Test
+    public void ignoresPositionsThatOverflow() {
+        assertNull(ByteRange.parse("bytes=9223372036854775808-", 1000));
+        assertNull(ByteRange.parse("bytes=0-99999999999999999999", 1000));
+        assertNull(ByteRange.parse("bytes=-99999999999999999999", 1000));
+        assertEquals("[0-999]", ByteRange.parse("bytes=0-999999999999999999", 1000).toString());
+        assertNull(ByteRange.parse("bytes=+1-5", 1000));
+        assertNull(ByteRange.parse("bytes=0x1-5", 1000));
+    }
+
+    /**
+     * Headers that are not valid are ignored.
+     */
+    @Test
+    public void ignoresInvalidHeaders() {
+        assertNull(ByteRange.parse("items=0-5", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=5", 1000));
+        assertNull(ByteRange.parse("bytes=5-4", 1000));
+        assertNull(ByteRange.parse("bytes=-", 1000));
+        assertNull(ByteRange.parse("bytes=0-5, x", 1000));
+    }
+
+    /**
+     * More than 16 ranges are ignored, so a request cannot ask for the same
+     * bytes over and over, while 16 are still served.
+     */
+    @Test
+    public void ignoresTooManyRanges() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 16; i++) {
+            header.append(',').append(i).append('-').append(i);
+        }
+        assertEquals(16, ByteRange.parse(header.toString(), 1000).size());
+        assertNull(ByteRange.parse(header.append(",16-16").toString(), 1000));
+    }
+
+    /**
+     * The Content-Range of a range has its positions and the whole length.
+     */
+    @Test
+    public void formatsContentRange() {
+        assertEquals("bytes 0-499/1234", new ByteRange(0, 499).toContentRange(1234));
+    }
+}
@@ -0,0 +1,79 @@
+package com.akrivos.eos.http;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests finding the end of chunked bodies with {@link ChunkedBodyScanner}.
+ */
+public class ChunkedBodyScannerTest {
+    private static final String BODY = "5\r\nhello\r\n6;name=value\r\n world\r\n"
+            + "0\r\nX-Trailer: 1\r\n\r\n";
+
+    /**
+     * The end of a body that arrives at once is found right after its last line.
+     */
+    @Test
+    public void findsEndOfWholeBody() {
+        byte[] data = bytes(BODY + "GET / HTTP/1.1\r\n");
+        assertEquals(BODY.length(), new ChunkedBodyScanner(1024).scan(data, 0, data.length));
+    }
+
+    /**
+     * A body that arrives a byte at a time is only complete with its last byte.
+     */
+    @Test
+    public void findsEndOfBodyInParts() {
+        byte[] data = bytes(BODY);
+        ChunkedBodyScanner scanner = new ChunkedBodyScanner(1024);
+        for (int i = 0; i < data.length - 1; i++) {
+            assertEquals(-1, scanner.scan(data, i, i + 1));
+        }
+        assertEquals(data.length, scanner.scan(data, data.length - 1, data.length));
+    }
+
+    /**
+     * Chunk data is skipped over, even if it spans several parts.
+     */
+    @Test
+    public void skipsChunkDataAcrossParts() {
+        byte[] data = bytes("a\r\n0123456789\r\n0\r\n\r\n");
+        ChunkedBodyScanner scanner = new ChunkedBodyScanner(1024);
+        assertEquals(-1, scanner.scan(data, 0, 7));
+        assertEquals(-1, scanner.scan(data, 7, 14));
+        assertEquals(data.length, scanner.scan(data, 14, data.length));
+    }
+
+    /**
+     * A malformed body ends at the end of the bytes, for the handler to reject.
+     */
+    @Test
+    public void endsMalformedBodyAtEndOfBytes() {
+        byte[] data = bytes("zz\r\nhello\r\n0\r\n\r\n");
+        assertEquals(data.length, new ChunkedBodyScanner(1024).scan(data, 0, data.length));
+        data = bytes("5\r\nhelloXX0\r\n\r\n");
+        assertEquals(data.length, new ChunkedBodyScanner(1024).scan(data, 0, data.length));
+    }
+
+    /**
+     * A body larger than the maximum size ends at the end of the bytes.
+     */
+    @Test
+    public void endsTooLargeBodyAtEndOfBytes() {
+        byte[] data = bytes("10\r\n0123");
+        assertEquals(data.length, new ChunkedBodyScanner(8).scan(data, 0, data.length));
+    }
+
+    /**
+     * Encodes a {@link String} as ISO-8859-1.
+     *
+     * @param value the {@link String}.
+     * @return the bytes.
+     */
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,227 @@
+package com.akrivos.eos.http;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the persistent connections of {@link FilesHandler}.
+ */
+public class FilesHandlerTest {
+    @Rule
+    public TemporaryFolder root = new TemporaryFolder();
+
+    private FilesHandler handler;
+
+    /**
+     * Creates a {@link FilesHandler} serving a single file.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Before
+    public void setUp() throws Exception {
+        write("a.txt", "hello\n");
+        handler = new FilesHandler(root.getRoot().getPath());
+    }
+
+    /**
+     * A request expecting 100 (Continue), answered without reading its body,
+     * is told the connection is closed, as it cannot be reused.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void closesUnreadContinueBody() throws Exception {
+        FakeSocket socket = new FakeSocket("POST /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Expect: 100-continue\r\nContent-Length: 5\r\n\r\n");
+        assertFalse(handler.handle(socket));
+        String response = socket.getResponse();
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response, response.contains("\r\nConnection: close\r\n"));
+        assertFalse(response, response.contains("Keep-Alive"));
+        assertFalse(response, response.contains("100 Continue"));
+    }
+
+    /**
+     * The same request with its body sent up front keeps the connection open.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void keepsConnectionWithoutExpectation() throws Exception {
+        FakeSocket socket = new FakeSocket("POST /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length: 5\r\n\r\nhello");
+        assertTrue(handler.handle(socket));
+        String response = socket.getResponse();
+        assertTrue(response, response.contains("\r\nKeep-Alive: "));
+        assertEquals(-1, response.indexOf("Connection: close"));
+    }
+
+    /**
+     * A Range none of whose ranges is satisfiable is answered with a
+     * 416 (Requested Range Not Satisfiable) and the length of the file.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void rejectsUnsatisfiableRanges() throws Exception {
+        FakeSocket socket = new FakeSocket("GET /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Range: bytes=6-, 10-20\r\n\r\n");
+        assertTrue(handler.handle(socket));
+        String response = socket.getResponse();
+        assertTrue(response, response.startsWith("HTTP/1.1 416 "));
+        assertTrue(response, response.contains("\r\nContent-Range: bytes */6\r\n"));
+        assertTrue(response, response.endsWith("\r\n\r\n"));
+    }
+
+    /**
+     * A satisfiable range is sent as a 206 (Partial Content).
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void sendsSatisfiableRange() throws Exception {
+        FakeSocket socket = new FakeSocket("GET /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Range: bytes=-3\r\n\r\n");
+        assertTrue(handler.handle(socket));
+        String response = socket.getResponse();
+        assertTrue(response, response.startsWith("HTTP/1.1 206 "));
+        assertTrue(response, response.contains("\r\nContent-Range: bytes 3-5/6\r\n"));
+        assertTrue(response, response.endsWith("\r\n\r\nlo\n"));
+    }
+
+    /**
+     * When the compressed variant of a cached file is not admitted to a full
+     * cache, the cached identity variant is sent, rather than the file being
+     * read (and cached) again on every request.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void sendsCachedIdentityWhenCompressedIsNotAdmitted() throws Exception {
+        String text = repeat("cached text ", 80);
+        File file = write("b.txt", text);
+        long lastModified = file.lastModified();
+        FilesHandler handler = new FilesHandler(root.getRoot().getPath(), new ContentCache(8000));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(get(handler, "/b.txt", null).endsWith(text));
+        }
+        // fill the rest of the cache, so that there is no room for the compressed variant
+        for (int i = 0; i < 8; i++) {
+            write("f" + i + ".bin", repeat("x", 1000));
+            get(handler, "/f" + i + ".bin", null);
+        }
+
+        // a change that is not noticed, to tell whether the file is read again
+        write("b.txt", text.toUpperCase());
+        assertTrue(file.setLastModified(lastModified));
+        String response = get(handler, "/b.txt", "gzip");
+        assertFalse(response, response.contains("Content-Encoding"));
+        assertTrue(response, response.endsWith(text));
+        assertTrue(response, response.contains("\r\nVary: Accept-Encoding\r\n"));
+    }
+
+    /**
+     * Requests a file on a connection of its own.
+     *
+     * @param handler        the {@link FilesHandler}.
+     * @param path           the path of the file.
+     * @param acceptEncoding the Accept-Encoding of the request, or null.
+     * @return the response.
+     * @throws Exception any exception that might occur.
+     */
+    private static String get(FilesHandler handler, String path, String acceptEncoding)
+            throws Exception {
+        FakeSocket socket = new FakeSocket("GET " + path + " HTTP/1.1\r\nHost: x\r\n"
+                + (acceptEncoding != null ? "Accept-Encoding: " + acceptEncoding + "\r\n" : "")
+                + "Connection: close\r\n\r\n");
+        handler.handle(socket);
+        return socket.getResponse();
+    }
+
+    /**
+     * Writes a file to the root.
+     *
+     * @param name    the name of the file.
+     * @param content the content, as ISO-8859-1.
+     * @return the {@link File}.
+     * @throws Exception any exception that might occur.
+     */
+    private File write(String name, String content) throws Exception {
+        File file = new File(root.getRoot(), name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(StandardCharsets.ISO_8859_1));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Repeats a {@link String}.
+     *
+     * @param value the {@link String}.
+     * @param count the number of times.
+     * @return the repeated {@link String}.
+     */
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * An unconnected {@link Socket} reading a fixed request
+     * and keeping what is written to it.
+     */
+    private static final class FakeSocket extends Socket {
+        private final InputStream in;
+        private final ByteArrayOutputStream out;
+
+        /**
+         * Creates a new FakeSocket.
+         *
+         * @param request the bytes the client sends.
+         */
+        private FakeSocket(String request) {
+            in = new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1));
+            out = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        /**
+         * Returns what has been written to the socket.
+         *
+         * @return the response.
+         */
+        private String getResponse() {
+            return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+        }
+    }
+}
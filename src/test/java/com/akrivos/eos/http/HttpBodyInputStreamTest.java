@@ -0,0 +1,147 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpStatusCode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests decoding request bodies with {@link HttpBodyInputStream}.
+ */
+public class HttpBodyInputStreamTest {
+    private static final String NEXT_REQUEST = "GET / HTTP/1.1\r\n\r\n";
+
+    /**
+     * A chunked body is decoded without its extensions and trailers, and
+     * nothing after the trailers is read.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void decodesChunksWithTrailers() throws Exception {
+        InputStream in = stream("5\r\nhello\r\n6;name=\"a;b\"\r\n world\r\n0\r\n"
+                + "X-Checksum: 1234\r\nX-Other: a\r\n\r\n" + NEXT_REQUEST);
+        HttpBodyInputStream body = new HttpBodyInputStream(in, -1, true, 1024);
+        assertEquals("hello world", read(body));
+        assertTrue(body.isFinished());
+        assertEquals(11, body.getSize());
+        assertEquals(NEXT_REQUEST, read(in));
+    }
+
+    /**
+     * Bare LFs end the chunk lines as well as CRLFs do, and a last chunk
+     * without trailers ends the body.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void decodesChunksWithBareLineFeeds() throws Exception {
+        InputStream in = stream("3\nabc\nA\n0123456789\n0\n\n" + NEXT_REQUEST);
+        assertEquals("abc0123456789", read(new HttpBodyInputStream(in, -1, true, 1024)));
+        assertEquals(NEXT_REQUEST, read(in));
+    }
+
+    /**
+     * A chunk size that is not hexadecimal, or too large to be a length, is rejected.
+     */
+    @Test
+    public void rejectsBadChunkSizes() {
+        assertRejected(HttpStatusCode.BAD_REQUEST, "x\r\nhello\r\n0\r\n\r\n", 1024);
+        assertRejected(HttpStatusCode.BAD_REQUEST, "\r\nhello\r\n0\r\n\r\n", 1024);
+        assertRejected(HttpStatusCode.BAD_REQUEST,
+                "10000000000000000\r\nhello\r\n0\r\n\r\n", Long.MAX_VALUE);
+    }
+
+    /**
+     * Chunk data must be followed by CRLF.
+     */
+    @Test
+    public void rejectsChunkDataWithoutLineEnd() {
+        assertRejected(HttpStatusCode.BAD_REQUEST, "5\r\nhelloX\r\n0\r\n\r\n", 1024);
+    }
+
+    /**
+     * A body whose chunks add up to more than the maximum size is rejected
+     * before the chunk that goes over is read.
+     */
+    @Test
+    public void rejectsTooLargeChunkedBody() {
+        assertRejected(HttpStatusCode.ENTITY_TOO_LARGE, "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n", 8);
+    }
+
+    /**
+     * A chunked body that ends before its last chunk is an error.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test(expected = EOFException.class)
+    public void failsOnTruncatedChunkedBody() throws Exception {
+        read(new HttpBodyInputStream(stream("5\r\nhello\r\n"), -1, true, 1024));
+    }
+
+    /**
+     * A body with a Content-Length stops at its length.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void readsContentLength() throws Exception {
+        InputStream in = stream("hello" + NEXT_REQUEST);
+        assertEquals("hello", read(new HttpBodyInputStream(in, 5, false, 1024)));
+        assertEquals(NEXT_REQUEST, read(in));
+    }
+
+    /**
+     * Reads a body, expecting it to be rejected with the given status.
+     *
+     * @param status  the expected {@link HttpStatusCode}.
+     * @param body    the body.
+     * @param maxSize the maximum size of the body.
+     */
+    private static void assertRejected(HttpStatusCode status, String body, long maxSize) {
+        try {
+            read(new HttpBodyInputStream(stream(body), -1, true, maxSize));
+            fail("The body was not rejected: " + body);
+        } catch (HttpBodyException e) {
+            assertEquals(status, e.getStatusCode());
+        } catch (IOException e) {
+            fail("The body was not rejected with " + status + ": " + e);
+        }
+    }
+
+    /**
+     * Reads an {@link InputStream} to its end.
+     *
+     * @param in the {@link InputStream}.
+     * @return what was read, as ISO-8859-1.
+     * @throws IOException any exception that might occur.
+     */
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, bytesRead);
+        }
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Creates an {@link InputStream} of a {@link String}.
+     *
+     * @param value the {@link String}.
+     * @return the {@link InputStream}.
+     */
+    private static InputStream stream(String value) {
+        return new ByteArrayInputStream(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,71 @@
+package com.akrivos.eos.http;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests formatting and parsing HTTP dates with {@link HttpDate}.
+ */
+public class HttpDateTest {
+    private static final long NOV_6_1994 = 784111777000L;
+
+    /**
+     * The preferred RFC 1123 format is parsed.
+     */
+    @Test
+    public void parsesRfc1123() {
+        assertEquals(NOV_6_1994, HttpDate.INSTANCE.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(NOV_6_1994, HttpDate.INSTANCE.parse(" Sun, 06 Nov 1994 08:49:37 GMT "));
+        assertEquals(951782400000L, HttpDate.INSTANCE.parse("Tue, 29 Feb 2000 00:00:00 GMT"));
+    }
+
+    /**
+     * The obsolete RFC 850 format is parsed, with its two digit year.
+     */
+    @Test
+    public void parsesRfc850() {
+        assertEquals(NOV_6_1994, HttpDate.INSTANCE.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(1262304000000L, HttpDate.INSTANCE.parse("Friday, 01-Jan-10 00:00:00 GMT"));
+    }
+
+    /**
+     * The obsolete asctime() format is parsed, with its space padded day.
+     */
+    @Test
+    public void parsesAsctime() {
+        assertEquals(NOV_6_1994, HttpDate.INSTANCE.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(NOV_6_1994 + 10 * 24 * 60 * 60 * 1000L,
+                HttpDate.INSTANCE.parse("Wed Nov 16 08:49:37 1994"));
+    }
+
+    /**
+     * Dates that are not valid are -1, so they are ignored.
+     */
+    @Test
+    public void rejectsInvalidDates() {
+        assertEquals(-1, HttpDate.INSTANCE.parse(null));
+        assertEquals(-1, HttpDate.INSTANCE.parse(""));
+        assertEquals(-1, HttpDate.INSTANCE.parse("yesterday"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun, 06 Nov 1994 08:49:37 UTC"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun, 06 Foo 1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun, 32 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun, 06 Nov 1994 25:49:37 GMT"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun, 06-Nov-1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sunday, 06 Nov 94 08:49:37 GMT"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun Nov 6 08:49:37 1994"));
+        assertEquals(-1, HttpDate.INSTANCE.parse("Sun, 06 Nov 1994 08:49:3x GMT"));
+    }
+
+    /**
+     * A formatted date is in the RFC 1123 format, and parses back to itself.
+     */
+    @Test
+    public void formatsRfc1123() {
+        String date = HttpDate.INSTANCE.format(NOV_6_1994);
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", date);
+        assertEquals(HttpDate.LENGTH, date.length());
+        assertEquals(NOV_6_1994, HttpDate.INSTANCE.parse(date));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDate.INSTANCE.format(0));
+    }
+}
@@ -0,0 +1,219 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpMethod;
+import com.akrivos.eos.http.constants.HttpRequestHeader;
+import com.akrivos.eos.http.constants.HttpStatusCode;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests parsing request heads with {@link HttpRequestParser}.
+ */
+public class HttpRequestParserTest {
+    /**
+     * A head arriving a byte at a time is parsed the same as one arriving at
+     * once, and the bytes after it are left for the body.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void parsesHeadInParts() throws Exception {
+        byte[] data = bytes("\r\nGET /a.txt?x=1 HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length:   5  \r\nX-Empty:\r\n\r\nhello");
+        HttpRequestParser parser = new HttpRequestParser();
+        int consumed = 0;
+        while (!parser.isComplete()) {
+            consumed += parser.parse(data, consumed, 1);
+        }
+        assertEquals(data.length - 5, consumed);
+        assertEquals(0, parser.parse(data, consumed, 5));
+        assertEquals(HttpMethod.GET, parser.getMethod());
+        assertEquals("/a.txt", parser.getPath());
+        assertEquals("x=1", parser.getQuery());
+        assertEquals(1.1f, parser.getHttpVersion(), 0f);
+        assertEquals(3, parser.getHeaderCount());
+        assertEquals("x", parser.getHeader(HttpRequestHeader.Host));
+        assertEquals(5, parser.getContentLength());
+        assertEquals("", parser.getHeader("x-empty"));
+    }
+
+    /**
+     * Bare LFs end the lines as well as CRLFs do.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void acceptsBareLineFeeds() throws Exception {
+        HttpRequestParser parser = parse("GET / HTTP/1.0\nHost: x\n\n");
+        assertTrue(parser.isComplete());
+        assertEquals(1f, parser.getHttpVersion(), 0f);
+        assertEquals("x", parser.getHeader("Host"));
+    }
+
+    /**
+     * Methods are case-sensitive, so an unknown one is left for the request to reject.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void matchesMethodsCaseSensitively() throws Exception {
+        assertNull(parse("get / HTTP/1.1\r\n\r\n").getMethod());
+        assertNull(parse("GETS / HTTP/1.1\r\n\r\n").getMethod());
+        assertEquals(HttpMethod.HEAD, parse("HEAD / HTTP/1.1\r\n\r\n").getMethod());
+    }
+
+    /**
+     * Request lines missing a part, or with control characters, are rejected.
+     */
+    @Test
+    public void rejectsBadRequestLines() {
+        assertRejected(HttpStatusCode.BAD_REQUEST, " / HTTP/1.1\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET  HTTP/1.1\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET / \r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET /\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "G\tET / HTTP/1.1\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET /a\u0000b HTTP/1.1\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET / HTTP/1.1 x\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET / HTTP/1.1\rHost: x\r\n\r\n");
+    }
+
+    /**
+     * Obsolete line folding is rejected (RFC 7230, section 3.2.4), as is a
+     * header line without a name.
+     */
+    @Test
+    public void rejectsObsoleteLineFolding() {
+        assertRejected(HttpStatusCode.BAD_REQUEST,
+                "GET / HTTP/1.1\r\nX-Folded: a\r\n b\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST,
+                "GET / HTTP/1.1\r\nX-Folded: a\r\n\tb\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET / HTTP/1.1\r\n: a\r\n\r\n");
+    }
+
+    /**
+     * Whitespace in a header name or before the colon is rejected.
+     */
+    @Test
+    public void rejectsWhitespaceInHeaderNames() {
+        assertRejected(HttpStatusCode.BAD_REQUEST,
+                "POST / HTTP/1.1\r\nContent-Length : 5\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST,
+                "POST / HTTP/1.1\r\nContent Length: 5\r\n\r\n");
+        assertRejected(HttpStatusCode.BAD_REQUEST, "GET / HTTP/1.1\r\nHost\r\n\r\n");
+    }
+
+    /**
+     * A line longer than 8K, or a head longer than 64K, is too long.
+     */
+    @Test
+    public void rejectsTooLongHeads() {
+        assertRejected(HttpStatusCode.REQ_TOO_LONG,
+                "GET /" + repeat('a', 9 * 1024) + " HTTP/1.1\r\n\r\n");
+        assertRejected(HttpStatusCode.REQ_TOO_LONG,
+                "GET / HTTP/1.1\r\nX-Long: " + repeat('a', 9 * 1024) + "\r\n\r\n");
+        StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (head.length() <= 64 * 1024) {
+            head.append("X-Header: ").append(repeat('a', 1000)).append("\r\n");
+        }
+        assertRejected(HttpStatusCode.REQ_TOO_LONG, head.append("\r\n").toString());
+    }
+
+    /**
+     * A line just within the limit is accepted.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void acceptsLongLineWithinLimit() throws Exception {
+        String value = repeat('a', 8 * 1024 - 20);
+        HttpRequestParser parser = parse("GET / HTTP/1.1\r\nX-Long: " + value + "\r\n\r\n");
+        assertEquals(value, parser.getHeader("X-Long"));
+    }
+
+    /**
+     * The Content-Length must only have decimal digits.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void rejectsBadContentLength() throws Exception {
+        String[] lengths = {"-1", "+5", "5 5", "0x10", "1234567890123456789"};
+        for (String length : lengths) {
+            HttpRequestParser parser = parse("POST / HTTP/1.1\r\nContent-Length: "
+                    + length + "\r\n\r\n");
+            try {
+                parser.getContentLength();
+                fail("The Content-Length " + length + " was not rejected");
+            } catch (HttpException e) {
+                assertEquals(HttpStatusCode.BAD_REQUEST.getStatusCode(), e.getCode());
+            }
+        }
+    }
+
+    /**
+     * Parses a whole head at once.
+     *
+     * @param head the head.
+     * @return the {@link HttpRequestParser}.
+     * @throws HttpException any {@link HttpException} the parsing might throw.
+     */
+    private static HttpRequestParser parse(String head) throws HttpException {
+        byte[] data = bytes(head);
+        HttpRequestParser parser = new HttpRequestParser();
+        int consumed = 0;
+        while (!parser.isComplete() && consumed < data.length) {
+            int count = parser.parse(data, consumed, data.length - consumed);
+            if (count == 0) {
+                break;
+            }
+            consumed += count;
+        }
+        return parser;
+    }
+
+    /**
+     * Parses a head, expecting it to be rejected with the given status.
+     *
+     * @param status the expected {@link HttpStatusCode}.
+     * @param head   the head.
+     */
+    private static void assertRejected(HttpStatusCode status, String head) {
+        try {
+            parse(head);
+            fail("The head was not rejected: " + head);
+        } catch (HttpException e) {
+            assertEquals(status.getStatusCode(), e.getCode());
+        }
+    }
+
+    /**
+     * Repeats a character.
+     *
+     * @param c     the character.
+     * @param count the number of times.
+     * @return the {@link String}.
+     */
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Encodes a {@link String} as ISO-8859-1.
+     *
+     * @param value the {@link String}.
+     * @return the bytes.
+     */
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
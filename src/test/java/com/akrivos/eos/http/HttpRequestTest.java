@@ -0,0 +1,173 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpStatusCode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the framing of request bodies and the evaluation
+ * of preconditions by {@link HttpRequest}.
+ */
+public class HttpRequestTest {
+    private static final String SMUGGLED = "GET /admin HTTP/1.1\r\nHost: x\r\n\r\n";
+    private static final String TAG = "\"abc\"";
+    private static final long MODIFIED = 784111777000L;
+    private static final String BEFORE = "Sun, 06 Nov 1994 08:49:36 GMT";
+    private static final String AT = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+    /**
+     * A request with two different Content-Lengths is rejected before its body
+     * is framed, so the body cannot be served as another pipelined request.
+     */
+    @Test
+    public void rejectsContentLengthsThatDiffer() {
+        assertBadRequest("POST /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length: 0\r\nContent-Length: " + SMUGGLED.length() + "\r\n\r\n"
+                + SMUGGLED);
+    }
+
+    /**
+     * A repeated Content-Length with the same value frames the body as usual.
+     */
+    @Test
+    public void acceptsRepeatedContentLength() throws Exception {
+        InputStream in = stream("POST /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Content-Length: 5\r\nContent-Length: 5\r\n\r\nhello");
+        HttpRequest request = new HttpRequest(in);
+        byte[] body = new byte[5];
+        assertEquals(5, request.getBody().read(body));
+        assertEquals("hello", new String(body, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * A request with more than one Transfer-Encoding is rejected.
+     */
+    @Test
+    public void rejectsRepeatedTransferEncoding() {
+        assertBadRequest("POST /a.txt HTTP/1.1\r\nHost: x\r\n"
+                + "Transfer-Encoding: chunked\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n");
+    }
+
+    /**
+     * If-Match is checked before If-None-Match, and a failed one
+     * is a 412 (Precondition Failed) even for a GET.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void checksIfMatchFirst() throws Exception {
+        assertEquals(HttpStatusCode.PRECON_FAILED,
+                preconditions("GET", "If-Match: \"other\"", "If-None-Match: " + TAG));
+        assertEquals(HttpStatusCode.NOT_MODIFIED,
+                preconditions("GET", "If-Match: \"other\", " + TAG, "If-None-Match: " + TAG));
+        assertNull(preconditions("GET", "If-Match: *"));
+    }
+
+    /**
+     * If-Match uses the strong comparison, so a weak tag never matches it,
+     * while If-None-Match uses the weak one.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void comparesTagsStronglyForIfMatch() throws Exception {
+        assertEquals(HttpStatusCode.PRECON_FAILED, preconditions("GET", "If-Match: W/" + TAG));
+        assertEquals(HttpStatusCode.NOT_MODIFIED, preconditions("GET", "If-None-Match: W/" + TAG));
+    }
+
+    /**
+     * If-Unmodified-Since is only checked without If-Match.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void checksIfUnmodifiedSinceWithoutIfMatch() throws Exception {
+        assertEquals(HttpStatusCode.PRECON_FAILED,
+                preconditions("GET", "If-Unmodified-Since: " + BEFORE));
+        assertNull(preconditions("GET", "If-Unmodified-Since: " + AT));
+        assertNull(preconditions("GET", "If-Match: " + TAG,
+                "If-Unmodified-Since: " + BEFORE));
+        assertNull(preconditions("GET", "If-Unmodified-Since: not a date"));
+    }
+
+    /**
+     * A matching If-None-Match is a 304 (Not Modified) for GET and HEAD
+     * requests, and a 412 (Precondition Failed) for the rest.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void checksIfNoneMatchByMethod() throws Exception {
+        assertEquals(HttpStatusCode.NOT_MODIFIED, preconditions("GET", "If-None-Match: " + TAG));
+        assertEquals(HttpStatusCode.NOT_MODIFIED, preconditions("HEAD", "If-None-Match: *"));
+        assertEquals(HttpStatusCode.PRECON_FAILED, preconditions("POST", "If-None-Match: " + TAG));
+        assertNull(preconditions("GET", "If-None-Match: \"other\""));
+    }
+
+    /**
+     * If-Modified-Since is only checked without If-None-Match, for GET and
+     * HEAD requests, and dates in the future are ignored.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void checksIfModifiedSinceWithoutIfNoneMatch() throws Exception {
+        assertEquals(HttpStatusCode.NOT_MODIFIED, preconditions("GET", "If-Modified-Since: " + AT));
+        assertNull(preconditions("GET", "If-Modified-Since: " + BEFORE));
+        assertNull(preconditions("GET", "If-None-Match: \"other\"",
+                "If-Modified-Since: " + AT));
+        assertNull(preconditions("POST", "If-Modified-Since: " + AT));
+        assertNull(preconditions("GET", "If-Modified-Since: "
+                + HttpDate.INSTANCE.format(System.currentTimeMillis() + 3600 * 1000L)));
+    }
+
+    /**
+     * Parses a request with the given method and headers, and checks
+     * its preconditions against {@link #TAG} and {@link #MODIFIED}.
+     *
+     * @param method  the method.
+     * @param headers the header lines.
+     * @return the {@link HttpStatusCode} of the preconditions, or null.
+     * @throws HttpException any {@link HttpException} that might occur.
+     */
+    private static HttpStatusCode preconditions(String method, String... headers)
+            throws HttpException {
+        StringBuilder request = new StringBuilder(method).append(" /a.txt HTTP/1.1\r\nHost: x\r\n");
+        for (String header : headers) {
+            request.append(header).append("\r\n");
+        }
+        return new HttpRequest(stream(request.append("\r\n").toString()))
+                .checkPreconditions(TAG, MODIFIED);
+    }
+
+    /**
+     * Parses a request, expecting it to be rejected with a 400 (Bad Request).
+     *
+     * @param request the request.
+     */
+    private static void assertBadRequest(String request) {
+        try {
+            new HttpRequest(stream(request));
+            fail("The request was not rejected");
+        } catch (HttpException e) {
+            assertEquals(HttpStatusCode.BAD_REQUEST.getStatusCode(), e.getCode());
+        }
+    }
+
+    /**
+     * Creates a buffered {@link InputStream} of a request.
+     *
+     * @param request the request.
+     * @return the {@link InputStream}.
+     */
+    private static InputStream stream(String request) {
+        return new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
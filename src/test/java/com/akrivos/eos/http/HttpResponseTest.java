@@ -0,0 +1,71 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpResponseHeader;
+import com.akrivos.eos.http.constants.HttpStatusCode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests encoding the headers of a {@link HttpResponse}.
+ */
+public class HttpResponseTest {
+    /**
+     * Values in ISO-8859-1 without line breaks are sent as they are.
+     */
+    @Test
+    public void keepsIso88591Values() {
+        String value = "/caf\u00e9 & b\u00e4r?x=1";
+        assertSame(value, HttpResponse.toHeaderValue(value));
+    }
+
+    /**
+     * Line breaks are replaced with spaces, so a header cannot be split in two.
+     */
+    @Test
+    public void replacesLineBreaks() {
+        assertEquals("/a  Set-Cookie: x", HttpResponse.toHeaderValue("/a\r\nSet-Cookie: x"));
+    }
+
+    /**
+     * Characters outside ISO-8859-1, including the ones that would be cut down
+     * to a line break, are percent-encoded as UTF-8.
+     */
+    @Test
+    public void percentEncodesOtherCharacters() {
+        assertEquals("/%E2%82%AC.txt", HttpResponse.toHeaderValue("/\u20ac.txt"));
+        assertEquals("/a%C4%8A%C4%8Db", HttpResponse.toHeaderValue("/a\u010a\u010db"));
+        assertEquals("/%F0%9F%98%80", HttpResponse.toHeaderValue("/\ud83d\ude00"));
+        assertEquals("/%3F", HttpResponse.toHeaderValue("/\ud83d"));
+    }
+
+    /**
+     * A header written to the response is sent encoded, as is one encoded up front.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void writesEncodedHeaders() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpResponse response = new HttpResponse(null, out);
+        response.writeStatusLine(HttpStatusCode.MOVED_PERM);
+        response.writeHeader(HttpResponseHeader.Location, "/\u010a\u010dX-Injected: 1/");
+        response.writeHeader(HttpResponseHeader.ContentLength, "0");
+        response.writeFinalHeaders();
+        response.commit();
+        String head = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertTrue(head, head.contains("\r\nLocation: /%C4%8A%C4%8DX-Injected: 1/\r\n"));
+        assertEquals("/%C4%8A%C4%8DX-Injected: 1/", response.getHeader(HttpResponseHeader.Location));
+
+        byte[] encoded = HttpResponse.encodeHeaders(Collections.singletonMap(
+                HttpResponseHeader.ContentDisposition, "inline; filename=\"\u0141\u00f3d\u017a\""));
+        assertEquals("Content-Disposition: inline; filename=\"%C5%81\u00f3d%C5%BA\"\r\n",
+                new String(encoded, StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,155 @@
+package com.akrivos.eos.http;
+
+import com.akrivos.eos.http.constants.HttpStatusCode;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reading multipart/form-data bodies with {@link MultipartParser}.
+ */
+public class MultipartParserTest {
+    private static final String BOUNDARY = "----boundary42";
+
+    /**
+     * The parts are the same however the body is split into reads,
+     * including the ones that split a delimiter, or the CRLF before it.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void readsPartsSplitAcrossReads() throws Exception {
+        String body = body("field", null, "value\r\n--not-the-boundary\r\n-",
+                "upload", "a.txt", "line 1\r\nline 2\r\n");
+        for (int size = 1; size <= body.length(); size++) {
+            MultipartParser parser = new MultipartParser(
+                    new TricklingInputStream(body, size), BOUNDARY, 1024);
+            HttpPart field = parser.nextPart();
+            assertEquals("field", field.getName());
+            assertEquals("value\r\n--not-the-boundary\r\n-", field.getString("ISO-8859-1"));
+            HttpPart upload = parser.nextPart();
+            assertEquals("upload", upload.getName());
+            assertEquals("a.txt", upload.getFileName());
+            assertEquals("line 1\r\nline 2\r\n", upload.getString("ISO-8859-1"));
+            assertNull(parser.nextPart());
+        }
+    }
+
+    /**
+     * A part several times larger than the buffer of the parser is read whole,
+     * wherever the fills of the buffer happen to split its delimiter.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void readsPartsLargerThanTheBuffer() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; content.length() < 20 * 1024; i++) {
+            content.append(i).append('-');
+        }
+        String body = body("big", "big.txt", content.toString());
+        for (int size = 4090; size <= 4100; size++) {
+            MultipartParser parser = new MultipartParser(
+                    new TricklingInputStream(body, size), BOUNDARY, 1024 * 1024);
+            HttpPart part = parser.nextPart();
+            assertEquals(content.length(), part.getSize());
+            assertEquals(content.toString(), part.getString("ISO-8859-1"));
+            assertNull(parser.nextPart());
+        }
+    }
+
+    /**
+     * A part over the threshold is spilled to disk with the same content.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void spillsLargePartsToDisk() throws Exception {
+        String content = "0123456789abcdef0123456789abcdef";
+        MultipartParser parser = new MultipartParser(
+                new TricklingInputStream(body("f", "f.bin", content), 7), BOUNDARY, 16);
+        HttpPart part = parser.nextPart();
+        try {
+            assertFalse(part.isInMemory());
+            assertEquals(content, part.getString("ISO-8859-1"));
+        } finally {
+            part.delete();
+        }
+    }
+
+    /**
+     * A body that ends before its closing delimiter is rejected.
+     *
+     * @throws Exception any exception that might occur.
+     */
+    @Test
+    public void rejectsBodyWithoutClosingDelimiter() throws Exception {
+        String body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"field\"\r\n"
+                + "\r\nvalue\r\n--" + BOUNDARY.substring(1);
+        MultipartParser parser = new MultipartParser(
+                new TricklingInputStream(body, 3), BOUNDARY, 1024);
+        try {
+            parser.nextPart();
+            fail("The body was not rejected");
+        } catch (HttpBodyException e) {
+            assertEquals(HttpStatusCode.BAD_REQUEST, e.getStatusCode());
+        }
+    }
+
+    /**
+     * Builds a multipart/form-data body from the names, file names (or null)
+     * and contents of its parts, with a preamble and an epilogue.
+     *
+     * @param parts the name, file name and content of each part.
+     * @return the body.
+     */
+    private static String body(String... parts) {
+        StringBuilder body = new StringBuilder("preamble\r\n");
+        for (int i = 0; i < parts.length; i += 3) {
+            body.append("--").append(BOUNDARY).append("\r\n")
+                    .append("Content-Disposition: form-data; name=\"").append(parts[i]).append('"');
+            if (parts[i + 1] != null) {
+                body.append("; filename=\"").append(parts[i + 1]).append('"');
+            }
+            body.append("\r\n\r\n").append(parts[i + 2]).append("\r\n");
+        }
+        return body.append("--").append(BOUNDARY).append("--\r\nepilogue").toString();
+    }
+
+    /**
+     * An {@link InputStream} returning at most a fixed number of bytes per read.
+     */
+    private static final class TricklingInputStream extends InputStream {
+        private final InputStream in;
+        private final int size;
+
+        /**
+         * Creates a new TricklingInputStream.
+         *
+         * @param value the {@link String} to read, as ISO-8859-1.
+         * @param size  the maximum number of bytes per read.
+         */
+        private TricklingInputStream(String value, int size) {
+            in = new ByteArrayInputStream(value.getBytes(StandardCharsets.ISO_8859_1));
+            this.size = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, Math.min(len, size));
+        }
+    }
+}